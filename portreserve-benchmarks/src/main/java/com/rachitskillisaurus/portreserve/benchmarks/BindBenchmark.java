@@ -0,0 +1,146 @@
+package com.rachitskillisaurus.portreserve.benchmarks;
+
+import com.rachitskillisaurus.portreserve.PortReservation;
+import com.rachitskillisaurus.portreserve.PortReservationProvider;
+import com.rachitskillisaurus.portreserve.TransferCallback;
+import com.rachitskillisaurus.portreserve.internal.ReusePort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per bind/close overhead the intercepting {@code java.net.PortReserveSocketImpl} adds to every {@link ServerSocket}
+ * in the JVM.  Each benchmark runs in its own fork, so {@code plain*} measure a JVM in which the library was never
+ * initialized, {@code intercepted*} one in which it was, and {@code interceptedDuringTransfer*} one in which another
+ * reservation is being transferred the whole time.  The latter bind the port of a third reservation that isn't being
+ * transferred, sharing it through {@code SO_REUSEPORT}, so every bind finds a registry entry and goes through the full
+ * lookup before passing through; they need JDK 9+ on Linux or macOS and include the cost of enabling
+ * {@code SO_REUSEPORT}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BindBenchmark {
+    private static final int CONTENDED_THREADS = 4;
+    private static final InetSocketAddress LOOPBACK_EPHEMERAL =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    @State(Scope.Benchmark)
+    public static class Intercepted {
+        @Setup
+        public void setUp() {
+            PortReservationProvider.get();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ActiveTransfer {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final CountDownLatch started = new CountDownLatch(1);
+        private PortReservation reservation;
+        private PortReservation lookedUp;
+        private Thread transferThread;
+
+        @Setup
+        public void setUp() throws Exception {
+            reservation = PortReservationProvider.get().reserveEphemeralPort(InetAddress.getLoopbackAddress());
+            transferThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    reservation.transfer(new TransferCallback<Void>() {
+                        @Override
+                        public Void transfer() throws Exception {
+                            started.countDown();
+                            done.await();
+                            return null;
+                        }
+                    });
+                }
+            }, "benchmark-transfer");
+            transferThread.setDaemon(true);
+            transferThread.start();
+            started.await();
+            lookedUp = PortReservationProvider.get().reserveReusePort(LOOPBACK_EPHEMERAL, 1);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            done.countDown();
+            transferThread.join();
+            reservation.close();
+            lookedUp.close();
+        }
+    }
+
+    @Benchmark
+    public int plain() throws IOException {
+        return bindAndClose();
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int plainContended() throws IOException {
+        return bindAndClose();
+    }
+
+    @Benchmark
+    public int intercepted(Intercepted state) throws IOException {
+        return bindAndClose();
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int interceptedContended(Intercepted state) throws IOException {
+        return bindAndClose();
+    }
+
+    @Benchmark
+    public int interceptedDuringTransfer(ActiveTransfer state) throws IOException {
+        return bindReusePortAndClose(state.lookedUp.getSocketAddress());
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int interceptedDuringTransferContended(ActiveTransfer state) throws IOException {
+        return bindReusePortAndClose(state.lookedUp.getSocketAddress());
+    }
+
+    private static int bindAndClose() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        try {
+            serverSocket.bind(LOOPBACK_EPHEMERAL);
+            return serverSocket.getLocalPort();
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    private static int bindReusePortAndClose(InetSocketAddress address) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        try {
+            ReusePort.enable(serverSocket);
+            serverSocket.bind(address);
+            return serverSocket.getLocalPort();
+        } finally {
+            serverSocket.close();
+        }
+    }
+}
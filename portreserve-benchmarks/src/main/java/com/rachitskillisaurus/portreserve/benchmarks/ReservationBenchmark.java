@@ -0,0 +1,90 @@
+package com.rachitskillisaurus.portreserve.benchmarks;
+
+import com.rachitskillisaurus.portreserve.PortReservation;
+import com.rachitskillisaurus.portreserve.PortReservationPool;
+import com.rachitskillisaurus.portreserve.PortReservationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reserving a port and closing the reservation again, through each of the reservation strategies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReservationBenchmark {
+    private static final int CONTENDED_THREADS = 4;
+    private static final int OPEN_PORT_START = 20000;
+
+    private PortReservationProvider provider;
+    private PortReservationPool pool;
+    private InetAddress loopback;
+
+    @Setup
+    public void setUp() {
+        provider = PortReservationProvider.get();
+        loopback = InetAddress.getLoopbackAddress();
+        pool = new PortReservationPool(provider, 16, 256);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public int reserveEphemeral() throws IOException {
+        return close(provider.reserveEphemeralPort(loopback));
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int reserveEphemeralContended() throws IOException {
+        return close(provider.reserveEphemeralPort(loopback));
+    }
+
+    @Benchmark
+    public int reserveOpen() throws IOException {
+        return close(provider.reserveOpenPort(loopback, OPEN_PORT_START));
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int reserveOpenContended() throws IOException {
+        return close(provider.reserveOpenPort(loopback, OPEN_PORT_START));
+    }
+
+    @Benchmark
+    public int takePooled() throws IOException {
+        return close(pool.take(loopback));
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int takePooledContended() throws IOException {
+        return close(pool.take(loopback));
+    }
+
+    private static int close(PortReservation reservation) throws IOException {
+        int port = reservation.getPort();
+        reservation.close();
+        return port;
+    }
+}
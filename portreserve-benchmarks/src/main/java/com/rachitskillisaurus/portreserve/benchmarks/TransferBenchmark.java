@@ -0,0 +1,86 @@
+package com.rachitskillisaurus.portreserve.benchmarks;
+
+import com.rachitskillisaurus.portreserve.PortReservation;
+import com.rachitskillisaurus.portreserve.PortReservationProvider;
+import com.rachitskillisaurus.portreserve.TransferCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link PortReservation#transfer(TransferCallback)}: handing a reserved port over to a newly bound
+ * {@link ServerSocket}.  The reservation is made and the resulting server closed outside of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+    private static final int CONTENDED_THREADS = 4;
+
+    @State(Scope.Thread)
+    public static class Reserved {
+        PortReservation reservation;
+        ServerSocket serverSocket;
+        InetAddress loopback;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            loopback = InetAddress.getLoopbackAddress();
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            reservation = PortReservationProvider.get().reserveEphemeralPort(loopback);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            if (serverSocket != null) {
+                serverSocket.close();
+                serverSocket = null;
+            }
+            reservation.close();
+        }
+    }
+
+    @Benchmark
+    public ServerSocket transfer(Reserved state) {
+        return transferToServerSocket(state);
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public ServerSocket transferContended(Reserved state) {
+        return transferToServerSocket(state);
+    }
+
+    private static ServerSocket transferToServerSocket(final Reserved state) {
+        state.serverSocket = state.reservation.transfer(new TransferCallback<ServerSocket>() {
+            @Override
+            public ServerSocket transfer() throws Exception {
+                ServerSocket serverSocket = new ServerSocket();
+                serverSocket.bind(new InetSocketAddress(state.loopback, state.reservation.getPort()));
+                return serverSocket;
+            }
+        });
+        return state.serverSocket;
+    }
+}
@@ -0,0 +1,124 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bootstrap.InterceptionFilter;
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry;
+
+import java.net.InetAddress;
+
+/**
+ * Decides which {@link java.net.ServerSocket}s get the intercepting {@code SocketImpl} and which reservations binds may
+ * take over.
+ * <p/>
+ * The socket factory is asked for a {@code SocketImpl} when a {@code ServerSocket} is constructed, before the port it
+ * will bind is known, so the factory decides on the state of the reservations: with {@link #always()} every
+ * {@code ServerSocket} gets the intercepting proxy, with {@link #whileReserved()} only those created while a matching
+ * reservation exists and with {@link #whileTransferring()} only those created while a matching reservation is being
+ * transferred.  All other sockets get the platform {@code SocketImpl} directly, with no delegation layer.
+ * <p/>
+ * {@link #ports(int, int)} and {@link #addresses(InetAddress...)} restrict the reservations that count; reservations
+ * outside of them are never taken over by a bind.  A policy applies to reservations made after it is installed with
+ * {@link PortReservationProvider#setInterceptionPolicy(InterceptionPolicy)}.  Where the intercepting {@code SocketImpl}
+ * could not be installed every socket keeps the platform {@code SocketImpl} and only the port and address restrictions
+ * apply.
+ */
+public final class InterceptionPolicy {
+    public static final String INTERCEPT_PROPERTY = "portreserve.intercept";
+
+    public enum Mode {
+        ALWAYS, WHILE_RESERVED, WHILE_TRANSFERRING
+    }
+
+    private final Mode mode;
+    private final InterceptionFilter filter;
+
+    private InterceptionPolicy(Mode mode, InterceptionFilter filter) {
+        this.mode = mode;
+        this.filter = filter;
+    }
+
+    /**
+     * Intercept every {@code ServerSocket}, the default
+     */
+    public static InterceptionPolicy always() {
+        return new InterceptionPolicy(Mode.ALWAYS, InterceptionFilter.ALL);
+    }
+
+    /**
+     * Intercept {@code ServerSocket}s created while at least one matching reservation exists
+     */
+    public static InterceptionPolicy whileReserved() {
+        return new InterceptionPolicy(Mode.WHILE_RESERVED, InterceptionFilter.ALL);
+    }
+
+    /**
+     * Intercept {@code ServerSocket}s created while at least one matching reservation is in transfer mode.  Sockets
+     * constructed before a transfer starts and only bound inside it are not taken over.
+     */
+    public static InterceptionPolicy whileTransferring() {
+        return new InterceptionPolicy(Mode.WHILE_TRANSFERRING, InterceptionFilter.ALL);
+    }
+
+    /**
+     * Parse the value of {@value #INTERCEPT_PROPERTY}: {@code always}, {@code reserved} or {@code transferring}
+     *
+     * @param value property value
+     * @return policy for {@code value}
+     */
+    public static InterceptionPolicy valueOf(String value) {
+        if ("always".equalsIgnoreCase(value)) {
+            return always();
+        } else if ("reserved".equalsIgnoreCase(value)) {
+            return whileReserved();
+        } else if ("transferring".equalsIgnoreCase(value)) {
+            return whileTransferring();
+        }
+        throw new IllegalArgumentException("Unknown " + INTERCEPT_PROPERTY + " value " + value);
+    }
+
+    /**
+     * @return this policy, additionally matching reservations on ports in {@code [minPort, maxPort]}; without any
+     * port range every port matches
+     */
+    public InterceptionPolicy ports(int minPort, int maxPort) {
+        return new InterceptionPolicy(mode, filter.withPorts(minPort, maxPort));
+    }
+
+    /**
+     * @return this policy, additionally matching reservations bound to {@code addresses}; without any address every
+     * address matches
+     */
+    public InterceptionPolicy addresses(InetAddress... addresses) {
+        InterceptionFilter updated = filter;
+        for (InetAddress address : addresses) {
+            updated = updated.withAddress(address);
+        }
+        return new InterceptionPolicy(mode, updated);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    InterceptionFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Evaluated by the socket factory for every new {@code ServerSocket}
+     */
+    boolean interceptsNewSockets() {
+        switch (mode) {
+            case WHILE_RESERVED:
+                return PortReservationRegistry.INSTANCE.hasInterceptableReservations();
+            case WHILE_TRANSFERRING:
+                return PortReservationRegistry.INSTANCE.isInterceptableTransferActive();
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InterceptionPolicy{mode=" + mode + ", " + filter + '}';
+    }
+}
@@ -0,0 +1,165 @@
+package com.rachitskillisaurus.portreserve;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Chooses the order ports are probed in by {@link PortReservationProvider#reserveOpenPort(java.net.InetAddress, int,
+ * int, ReservationOptions)}.
+ * <p/>
+ * A caller probing alone starts at the first port of its range, so it still gets the lowest free port.  Callers probing
+ * concurrently start from a cursor picked by thread id instead, left just past the last port reserved from that
+ * stripe, so they spread across the range rather than racing each other for the same ports.  Ports that failed to bind
+ * are remembered for a short while and skipped without a bind; if that leaves nothing free the range is probed again
+ * ignoring them.  Busy ports are remembered by port number regardless of the interface address.
+ */
+final class PortAllocator {
+    /* 32 ints = 128 bytes between cursors, covers adjacent line prefetch */
+    private static final int PADDING = 32;
+    private static final int STRIPES = stripes();
+    /* distance between the first cursors of neighbouring stripes */
+    private static final int STRIDE = 16;
+    static final long DEFAULT_BUSY_TTL_MILLIS = 1000;
+
+    private final AtomicIntegerArray cursors = new AtomicIntegerArray(STRIPES * PADDING);
+    private final AtomicInteger probing = new AtomicInteger();
+    /* port -> System.nanoTime() until which it is assumed busy */
+    private final ConcurrentMap<Integer, Long> busy = new ConcurrentHashMap<Integer, Long>();
+    private volatile long busyTtlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUSY_TTL_MILLIS);
+
+    void setBusyTtlNanos(long busyTtlNanos) {
+        this.busyTtlNanos = busyTtlNanos;
+        if (busyTtlNanos == 0) {
+            busy.clear();
+        }
+    }
+
+    long getBusyTtlNanos() {
+        return busyTtlNanos;
+    }
+
+    /**
+     * Start probing {@code [startPort, endPort]}, {@link Probe#done()} must be called once finished
+     */
+    Probe probe(int startPort, int endPort) {
+        return new Probe(startPort, endPort, probing.incrementAndGet() > 1);
+    }
+
+    /**
+     * Forget that {@code port} was busy, its reservation was just closed
+     */
+    void released(int port) {
+        busy.remove(port);
+    }
+
+    private boolean isBusy(int port) {
+        Long until = busy.get(port);
+        if (until == null) {
+            return false;
+        }
+        if (System.nanoTime() - until >= 0) {
+            busy.remove(port, until);
+            return false;
+        }
+        return true;
+    }
+
+    private void markBusy(int port) {
+        long ttl = busyTtlNanos;
+        if (ttl > 0) {
+            busy.put(port, System.nanoTime() + ttl);
+        }
+    }
+
+    /**
+     * A single pass over a port range, wrapping around from its origin, followed by a second pass that doesn't skip
+     * ports remembered as busy if the first one skipped any
+     */
+    final class Probe {
+        private final int startPort;
+        private final int endPort;
+        private final int cell;
+        private final int origin;
+        private int next;
+        private int visited;
+        private boolean skipBusy = true;
+        private boolean skipped;
+        private int probed;
+
+        private Probe(int startPort, int endPort, boolean contended) {
+            this.startPort = startPort;
+            this.endPort = endPort;
+            this.cell = cell();
+            int origin = startPort;
+            if (contended && endPort > startPort) {
+                int cursor = cursors.get(cell);
+                origin = cursor >= startPort && cursor <= endPort ? cursor :
+                        startPort + (int) ((long) (cell / PADDING) * STRIDE % (endPort - startPort + 1));
+            }
+            this.origin = origin;
+            this.next = origin;
+        }
+
+        /**
+         * @return next port to try, {@code -1} once the range is exhausted
+         */
+        int next() {
+            int size = endPort - startPort + 1;
+            while (true) {
+                if (visited == size) {
+                    if (!skipBusy || !skipped) {
+                        return -1;
+                    }
+                    skipBusy = false;
+                    visited = 0;
+                    next = origin;
+                }
+                int port = next;
+                next = port == endPort ? startPort : port + 1;
+                visited++;
+                if (skipBusy && isBusy(port)) {
+                    skipped = true;
+                    continue;
+                }
+                probed++;
+                return port;
+            }
+        }
+
+        /**
+         * @return ports handed out by {@link #next()} so far
+         */
+        int getProbed() {
+            return probed;
+        }
+
+        void reserved(int port) {
+            busy.remove(port);
+            cursors.set(cell, port + 1);
+        }
+
+        void busy(int port) {
+            markBusy(port);
+        }
+
+        void done() {
+            probing.decrementAndGet();
+        }
+    }
+
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        return ((int) (id ^ (id >>> 16)) & (STRIPES - 1)) * PADDING;
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
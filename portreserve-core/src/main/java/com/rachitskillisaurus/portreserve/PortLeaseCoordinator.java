@@ -0,0 +1,235 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.internal.MappedLeaseTable;
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates port usage between JVMs on the same host through a shared, memory mapped lease file.  Before reserving a
+ * port, {@link PortReservationProvider} takes a lease on it; ports leased by other live JVMs are skipped without
+ * attempting a bind, so concurrent test forks partition the port space instead of racing for the same ports.
+ * <p/>
+ * Leases are renewed in the background while their reservation is open and expire otherwise, so leases of crashed
+ * JVMs are reclaimed.  Where {@code /proc} is available, leases of processes that no longer exist are reclaimed
+ * immediately.  A process id only identifies a process within its PID namespace and boot, so every lease also carries
+ * a tag derived from the boot id and PID namespace; leases of JVMs in other containers sharing the file, or from
+ * before a reboot, are only ever reclaimed by expiry.
+ * <p/>
+ * Enable for every JVM with {@code -Dportreserve.lease.file=/path/to/file} or install with
+ * {@link PortReservationProvider#setLeaseCoordinator(PortLeaseCoordinator)}.
+ *
+ * @see com.rachitskillisaurus.portreserve.PortReservationProvider
+ */
+public class PortLeaseCoordinator implements Closeable {
+    public static final String LEASE_FILE_PROPERTY = "portreserve.lease.file";
+    public static final long DEFAULT_LEASE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /* an owner is (namespace tag << PID_BITS) | pid; Linux pids never exceed 2^22 */
+    private static final int PID_BITS = 22;
+    private static final int PID_MASK = (1 << PID_BITS) - 1;
+    private static final boolean PROC_AVAILABLE = new File("/proc/self").exists();
+    private static final int OWNER = owner(currentPid());
+
+    private final MappedLeaseTable table;
+    private final long leaseSeconds;
+    /* internals rather than reservations, so a held lease doesn't keep a leaked reservation reachable */
+    private final Map<Integer, PortReservationInternal> held = new ConcurrentHashMap<Integer, PortReservationInternal>();
+    private final ScheduledExecutorService renewer;
+    private volatile boolean closed;
+
+    /**
+     * Open (creating if needed) a lease file
+     *
+     * @param leaseFile   file shared by all coordinating JVMs
+     * @param leaseMillis how long a lease survives without renewal
+     * @throws IOException if the lease file can't be mapped
+     */
+    public PortLeaseCoordinator(File leaseFile, long leaseMillis) throws IOException {
+        this.table = new MappedLeaseTable(leaseFile);
+        this.leaseSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(leaseMillis));
+        this.renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "portreserve-lease-renewer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, leaseSeconds / 3);
+        renewer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                renew();
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    public PortLeaseCoordinator(File leaseFile) throws IOException {
+        this(leaseFile, DEFAULT_LEASE_MILLIS);
+    }
+
+    /**
+     * @param port port to check
+     * @return {@code true} if {@code port} is leased by another live JVM
+     */
+    public boolean isLeasedByOther(int port) {
+        return isLiveForeignLease(table.get(port));
+    }
+
+    /**
+     * Take (or extend) this JVM's lease on {@code port}
+     *
+     * @return {@code false} if another live JVM holds the lease
+     * @throws IOException if this coordinator is closed or the lease file can't be locked
+     */
+    boolean tryAcquire(int port) throws IOException {
+        if (closed) {
+            throw new IOException("Lease coordinator is closed");
+        }
+        /* only another JVM changing the slot in between makes compare-and-set fail, so this settles quickly */
+        while (true) {
+            long lease = table.get(port);
+            if (isLiveForeignLease(lease)) {
+                return false;
+            }
+            if (table.compareAndSet(port, lease, MappedLeaseTable.encode(OWNER, now() + leaseSeconds))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Keep the lease on {@code port} for as long as {@code reservation} is open
+     */
+    void attach(int port, PortReservationInternal reservation) {
+        held.put(port, reservation);
+    }
+
+    /**
+     * Give up this JVM's lease on {@code port} if it is held for {@code reservation}
+     */
+    void release(int port, PortReservationInternal reservation) {
+        if (reservation == null || held.remove(port, reservation)) {
+            release(port);
+        }
+    }
+
+    private void release(int port) {
+        if (closed) {
+            return;
+        }
+        long lease = table.get(port);
+        if (lease != 0 && MappedLeaseTable.owner(lease) == OWNER) {
+            try {
+                table.compareAndSet(port, lease, 0);
+            } catch (IOException e) {
+                PortReservationLogger.error("Failed to release lease, it expires instead: {}", e);
+            }
+        }
+    }
+
+    private void renew() {
+        for (Map.Entry<Integer, PortReservationInternal> entry : held.entrySet()) {
+            /* recycling reservations are only closed while their owner holds the port */
+            if (entry.getValue().isClosed() && !entry.getValue().isRecycling()) {
+                release(entry.getKey(), entry.getValue());
+            } else {
+                try {
+                    tryAcquire(entry.getKey());
+                } catch (IOException e) {
+                    PortReservationLogger.error("Failed to renew lease: {}", e);
+                }
+            }
+        }
+    }
+
+    private boolean isLiveForeignLease(long lease) {
+        if (lease == 0) {
+            return false;
+        }
+        int owner = MappedLeaseTable.owner(lease);
+        if (owner == OWNER || MappedLeaseTable.expirySeconds(lease) < now()) {
+            return false;
+        }
+        /* /proc only tells about processes in this JVM's own namespace */
+        if (!PROC_AVAILABLE || (owner >>> PID_BITS) != (OWNER >>> PID_BITS)) {
+            return true;
+        }
+        return new File("/proc/" + (owner & PID_MASK)).exists();
+    }
+
+    /**
+     * Stop renewing and release every lease held by this coordinator
+     */
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        for (Integer port : held.keySet()) {
+            release(port, null);
+            held.remove(port);
+        }
+        /* leases are released above; the provider may still hold on to this coordinator, fail its calls from now on */
+        closed = true;
+        try {
+            table.close();
+        } catch (IOException e) {
+            PortReservationLogger.error("Failed to close lease file: {}", e);
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * @return lease owner for process {@code pid} in this JVM's PID namespace
+     */
+    static int owner(int pid) {
+        return (namespaceTag() << PID_BITS) | (pid & PID_MASK);
+    }
+
+    private static int currentPid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            int pid = Integer.parseInt(name.substring(0, name.indexOf('@')));
+            if (pid > 0 && pid <= PID_MASK) {
+                return pid;
+            }
+        } catch (RuntimeException e) {
+            /* fall through */
+        }
+        /* no usable pid, fall back to a random owner id and rely on lease expiry alone */
+        return 1 + (int) (Math.random() * (PID_MASK - 1));
+    }
+
+    /* 10 bit tag of the boot id and PID namespace, 0 where /proc doesn't tell */
+    private static int namespaceTag() {
+        if (!PROC_AVAILABLE) {
+            return 0;
+        }
+        String namespace;
+        try {
+            namespace = new String(Files.readAllBytes(Paths.get("/proc/sys/kernel/random/boot_id")), "UTF-8").trim()
+                        + Files.readSymbolicLink(Paths.get("/proc/self/ns/pid"));
+        } catch (IOException e) {
+            return 0;
+        } catch (UnsupportedOperationException e) {
+            return 0;
+        }
+        int hash = namespace.hashCode();
+        return (hash ^ (hash >>> 10) ^ (hash >>> 20)) & ((1 << (32 - PID_BITS)) - 1);
+    }
+}
@@ -1,13 +1,20 @@
 package com.rachitskillisaurus.portreserve;
 
 import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.bootstrap.TransferScope;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An API for representing a Port Reservation.  A port reservation wraps a bound server socket that can be
@@ -26,6 +33,9 @@ import java.util.Arrays;
  */
 public class PortReservation implements Closeable {
     private PortReservationInternal portReservationInternal;
+    private ReservationReaper.Tracked tracked;
+    /* options the server socket was bound with, reapplied when a recycling reservation binds again */
+    private ReservationOptions options = ReservationOptions.defaults();
 
     static {
         PortReservationProvider.get();
@@ -54,7 +64,7 @@ public class PortReservation implements Closeable {
      * @return port for this reservation
      */
     public int getPort() {
-        return portReservationInternal.getServerSocket().getLocalPort();
+        return portReservationInternal.getPort();
     }
 
     /**
@@ -71,6 +81,59 @@ public class PortReservation implements Closeable {
         return portReservationInternal.getServerSocket();
     }
 
+    /**
+     * Get every listening socket of this reservation, see {@link #getServerSocket()} for the caveats.  Reservations made
+     * with {@link PortReservationProvider#reserveReusePort(InetSocketAddress, int)} hold several, all others one.
+     *
+     * @return listening sockets, the one returned by {@link #getServerSocket()} first; empty for UDP reservations
+     */
+    public List<ServerSocket> getServerSockets() {
+        return Arrays.asList(portReservationInternal.getServerSockets());
+    }
+
+    /**
+     * Get the datagram socket of a UDP reservation, see {@link #getServerSocket()} for the caveats
+     *
+     * @return datagram socket, or {@code null} for TCP reservations
+     */
+    public DatagramSocket getDatagramSocket() {
+        return portReservationInternal.getDatagramSocket();
+    }
+
+    /**
+     * @return {@code true} if this is a UDP reservation made with
+     * {@link PortReservationProvider#reserveDatagramPort(InetSocketAddress)} or one of its variants
+     */
+    public boolean isDatagram() {
+        return portReservationInternal.isDatagram();
+    }
+
+    /**
+     * Keep the port reserved across restarts of the server it is transferred to.  When that server closes its socket
+     * the reservation binds the same address again right away, so the next {@link #transfer(TransferCallback)} gets
+     * the same port without probing.  Recycling stops once the reservation itself is closed.
+     *
+     * @param recycling {@code true} to bind the port again whenever its owner closes it
+     * @throws UnsupportedOperationException for UDP and multi-listener reservations
+     */
+    public void setRecycling(boolean recycling) {
+        if (isDatagram()) {
+            throw new UnsupportedOperationException("UDP reservations can't be recycled");
+        }
+        if (portReservationInternal.hasReusePortListeners()) {
+            throw new UnsupportedOperationException("SO_REUSEPORT reservations can't be recycled");
+        }
+        portReservationInternal.setRecycler(
+                recycling ? new PortReservationRecycler(PortReservationProvider.get(), options) : null);
+    }
+
+    /**
+     * @return {@code true} if the port is bound again whenever the server it was transferred to closes it
+     */
+    public boolean isRecycling() {
+        return portReservationInternal.isRecycling();
+    }
+
     /**
      * Transfer the underlying socket for this reservation to code executed within the context of the supplied {@link
      * com.rachitskillisaurus.portreserve.TransferCallback}
@@ -81,21 +144,73 @@ public class PortReservation implements Closeable {
      * @throws IllegalStateException if underlying socket of this <code>PortReservation</code> closed
      */
     public <T> T transfer(TransferCallback<T> runnable) {
+        if (isClosed()) {
+            throw new IllegalStateException("Underlying socket for " + this + " is closed");
+        }
+        TransferScope scope = TransferScope.open();
+        startTransfer(scope);
         try {
-            if (isClosed()) {
-                throw new IllegalStateException("Underlying socket for " + this + " is closed");
-            }
-            startTransfer();
-            return runnable.transfer();
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return transferInScope(runnable, scope);
         } finally {
             stopTransfer();
         }
     }
 
+    /**
+     * Transfer the underlying socket for this reservation to code executed by {@code executor} within the context of
+     * the supplied {@link com.rachitskillisaurus.portreserve.TransferCallback}.  The reservation stays in transfer mode
+     * until the callback completes, but only binds made by the callback (and threads it starts or hands work to through
+     * {@link TransferContext}) take over the reserved socket, so many reservations can be transferred concurrently.
+     *
+     * @param runnable a {@code TransferCallback}
+     * @param executor executor to run {@code runnable} on
+     * @return future completed with the result of {@code runnable}, or exceptionally with what it threw
+     * @throws IllegalStateException if underlying socket of this <code>PortReservation</code> closed
+     */
+    public <T> CompletableFuture<T> transferAsync(final TransferCallback<T> runnable, Executor executor) {
+        if (isClosed()) {
+            throw new IllegalStateException("Underlying socket for " + this + " is closed");
+        }
+        final TransferScope scope = TransferScope.open();
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        startTransfer(scope);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TransferScope previous = scope.enter();
+                    T result = null;
+                    Throwable failure = null;
+                    try {
+                        result = runnable.transfer();
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        TransferScope.restore(previous);
+                        stopTransfer();
+                    }
+                    /* only complete once out of transfer mode, so dependent stages see the reservation settled */
+                    if (failure != null) {
+                        future.completeExceptionally(failure);
+                    } else {
+                        future.complete(result);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            stopTransfer();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Same as {@link #transferAsync(TransferCallback, Executor)} using {@link ForkJoinPool#commonPool()}
+     */
+    public <T> CompletableFuture<T> transferAsync(TransferCallback<T> runnable) {
+        return transferAsync(runnable, ForkJoinPool.commonPool());
+    }
+
     /**
      * Transfer multiple port reservations to code executed within the context of the supplied {@link
      * com.rachitskillisaurus.portreserve.TransferCallback}
@@ -105,20 +220,19 @@ public class PortReservation implements Closeable {
      * @throws IllegalStateException if underlying socket of any <code>PortReservation</code> from <code>reservations</code> closed
      */
     public static void transfer(final TransferCallback runnable, Iterable<PortReservation> reservations) {
+        TransferScope scope = TransferScope.open();
+        List<PortReservation> started = new ArrayList<PortReservation>();
         try {
             for (PortReservation portReservation : reservations) {
                 if (portReservation.isClosed()) {
                     throw new IllegalStateException("Underlying socket for " + portReservation + " is closed");
                 }
-                portReservation.startTransfer();
+                portReservation.startTransfer(scope);
+                started.add(portReservation);
             }
-            runnable.transfer();
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            transferInScope(runnable, scope);
         } finally {
-            for (PortReservation portReservation : reservations) {
+            for (PortReservation portReservation : started) {
                 portReservation.stopTransfer();
             }
         }
@@ -136,14 +250,25 @@ public class PortReservation implements Closeable {
         transfer(runnable, Arrays.asList(reservations));
     }
 
-    private void startTransfer() {
-        if (!portReservationInternal.getTransferMode().compareAndSet(false, true)) {
-            throw new IllegalStateException("Port reservation is already in transfer mode");
+    private static <T> T transferInScope(TransferCallback<T> runnable, TransferScope scope) {
+        TransferScope previous = scope.enter();
+        try {
+            return runnable.transfer();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            TransferScope.restore(previous);
         }
     }
 
+    private void startTransfer(TransferScope scope) {
+        portReservationInternal.startTransfer(scope);
+    }
+
     private void stopTransfer() {
-        portReservationInternal.getTransferMode().set(false);
+        portReservationInternal.stopTransfer();
     }
 
     @Override
@@ -179,15 +304,61 @@ public class PortReservation implements Closeable {
      */
     @Override
     public void close() throws IOException {
+        int port = getPort();
+        PortReservationProvider provider = PortReservationProvider.get();
+        provider.untrack(tracked);
+        portReservationInternal.setRecycler(null);
         portReservationInternal.close();
+        if (!isDatagram()) {
+            provider.portReleased(port, portReservationInternal);
+        }
     }
 
     /**
-     * @return true if underlying serverSocket closed
+     * Close multiple port reservations.  Every reservation is closed even if closing one of them fails.
+     *
+     * @param reservations a collection of {@code PortReservation} instances
+     * @throws IOException the first exception encountered closing a reservation
+     */
+    public static void close(Iterable<PortReservation> reservations) throws IOException {
+        IOException failure = null;
+        for (PortReservation portReservation : reservations) {
+            try {
+                portReservation.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Close multiple port reservations.  Every reservation is closed even if closing one of them fails.
+     *
+     * @param reservations a collection of {@code PortReservation} instances
+     * @throws IOException the first exception encountered closing a reservation
+     */
+    public static void close(PortReservation... reservations) throws IOException {
+        close(Arrays.asList(reservations));
+    }
+
+    /**
+     * @return true if underlying socket closed
      */
     public boolean isClosed() {
-        ServerSocket serverSocket = getServerSocket();
-        return serverSocket == null || serverSocket.isClosed();
+        return portReservationInternal.isClosed();
+    }
+
+    void setOptions(ReservationOptions options) {
+        this.options = options;
+    }
+
+    void setTracked(ReservationReaper.Tracked tracked) {
+        this.tracked = tracked;
     }
 
     PortReservationInternal getInternal() {
@@ -0,0 +1,221 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.internal.Histogram;
+import com.rachitskillisaurus.portreserve.internal.PortReserveMetrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time snapshot of what the library has been doing in this JVM: reservations made and closed, binds
+ * intercepted by the transferring {@code SocketImpl} versus passed through while a transfer was active, time spent in
+ * transfer mode and ports probed per successful {@code reserveOpenPort}.  Percentiles are accurate to within a factor of two.
+ * <p/>
+ * Obtain one from {@link PortReservationProvider#getMetrics()}; live values are also published over JMX as
+ * {@value #OBJECT_NAME}.
+ */
+public final class PortReservationMetrics implements PortReservationMetricsMBean {
+    public static final String OBJECT_NAME = "com.rachitskillisaurus.portreserve:type=PortReservationMetrics";
+
+    private final long reservationsCreated;
+    private final long reservationsClosed;
+    private final long interceptedBinds;
+    private final long passThroughBinds;
+    private final long transfers;
+    private final double transferTimeMeanMicros;
+    private final long transferTime99thPercentileMicros;
+    private final long transferTimeMaxMicros;
+    private final double reserveTimeMeanMicros;
+    private final long reserveTime99thPercentileMicros;
+    private final double portsProbedMean;
+    private final long portsProbedMax;
+
+    private PortReservationMetrics(PortReserveMetrics metrics) {
+        /* closed is read first so live never goes negative under concurrent updates */
+        reservationsClosed = metrics.getReservationsClosed();
+        reservationsCreated = metrics.getReservationsCreated();
+        interceptedBinds = metrics.getInterceptedBinds();
+        passThroughBinds = metrics.getPassThroughBinds();
+        Histogram transferNanos = metrics.getTransferNanos();
+        transfers = transferNanos.getCount();
+        transferTimeMeanMicros = transferNanos.getMean() / 1000;
+        transferTime99thPercentileMicros = TimeUnit.NANOSECONDS.toMicros(transferNanos.getPercentile(0.99));
+        transferTimeMaxMicros = TimeUnit.NANOSECONDS.toMicros(transferNanos.getMax());
+        Histogram reserveNanos = metrics.getReserveNanos();
+        reserveTimeMeanMicros = reserveNanos.getMean() / 1000;
+        reserveTime99thPercentileMicros = TimeUnit.NANOSECONDS.toMicros(reserveNanos.getPercentile(0.99));
+        portsProbedMean = metrics.getPortsProbed().getMean();
+        portsProbedMax = metrics.getPortsProbed().getMax();
+    }
+
+    static PortReservationMetrics snapshot() {
+        return new PortReservationMetrics(PortReserveMetrics.INSTANCE);
+    }
+
+    /**
+     * Register the live metrics MBean with the platform MBean server, unless it's already registered
+     */
+    static void registerMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new StandardMBean(new Live(), PortReservationMetricsMBean.class), name);
+        }
+    }
+
+    @Override
+    public long getLiveReservations() {
+        return reservationsCreated - reservationsClosed;
+    }
+
+    @Override
+    public long getReservationsCreated() {
+        return reservationsCreated;
+    }
+
+    @Override
+    public long getReservationsClosed() {
+        return reservationsClosed;
+    }
+
+    @Override
+    public long getInterceptedBinds() {
+        return interceptedBinds;
+    }
+
+    @Override
+    public long getPassThroughBinds() {
+        return passThroughBinds;
+    }
+
+    @Override
+    public long getTransfers() {
+        return transfers;
+    }
+
+    @Override
+    public double getTransferTimeMeanMicros() {
+        return transferTimeMeanMicros;
+    }
+
+    @Override
+    public long getTransferTime99thPercentileMicros() {
+        return transferTime99thPercentileMicros;
+    }
+
+    @Override
+    public long getTransferTimeMaxMicros() {
+        return transferTimeMaxMicros;
+    }
+
+    @Override
+    public double getReserveTimeMeanMicros() {
+        return reserveTimeMeanMicros;
+    }
+
+    @Override
+    public long getReserveTime99thPercentileMicros() {
+        return reserveTime99thPercentileMicros;
+    }
+
+    @Override
+    public double getPortsProbedMean() {
+        return portsProbedMean;
+    }
+
+    @Override
+    public long getPortsProbedMax() {
+        return portsProbedMax;
+    }
+
+    @Override
+    public String toString() {
+        return "PortReservationMetrics{" +
+               "liveReservations=" + getLiveReservations() +
+               ", reservationsCreated=" + reservationsCreated +
+               ", interceptedBinds=" + interceptedBinds +
+               ", passThroughBinds=" + passThroughBinds +
+               ", transfers=" + transfers +
+               ", transferTimeMeanMicros=" + transferTimeMeanMicros +
+               ", transferTime99thPercentileMicros=" + transferTime99thPercentileMicros +
+               ", reserveTimeMeanMicros=" + reserveTimeMeanMicros +
+               ", portsProbedMean=" + portsProbedMean +
+               '}';
+    }
+
+    /**
+     * MBean implementation reading the live counters for every attribute
+     */
+    private static class Live implements PortReservationMetricsMBean {
+        private static final PortReserveMetrics METRICS = PortReserveMetrics.INSTANCE;
+
+        @Override
+        public long getLiveReservations() {
+            long closed = METRICS.getReservationsClosed();
+            return METRICS.getReservationsCreated() - closed;
+        }
+
+        @Override
+        public long getReservationsCreated() {
+            return METRICS.getReservationsCreated();
+        }
+
+        @Override
+        public long getReservationsClosed() {
+            return METRICS.getReservationsClosed();
+        }
+
+        @Override
+        public long getInterceptedBinds() {
+            return METRICS.getInterceptedBinds();
+        }
+
+        @Override
+        public long getPassThroughBinds() {
+            return METRICS.getPassThroughBinds();
+        }
+
+        @Override
+        public long getTransfers() {
+            return METRICS.getTransferNanos().getCount();
+        }
+
+        @Override
+        public double getTransferTimeMeanMicros() {
+            return METRICS.getTransferNanos().getMean() / 1000;
+        }
+
+        @Override
+        public long getTransferTime99thPercentileMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(METRICS.getTransferNanos().getPercentile(0.99));
+        }
+
+        @Override
+        public long getTransferTimeMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(METRICS.getTransferNanos().getMax());
+        }
+
+        @Override
+        public double getReserveTimeMeanMicros() {
+            return METRICS.getReserveNanos().getMean() / 1000;
+        }
+
+        @Override
+        public long getReserveTime99thPercentileMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(METRICS.getReserveNanos().getPercentile(0.99));
+        }
+
+        @Override
+        public double getPortsProbedMean() {
+            return METRICS.getPortsProbed().getMean();
+        }
+
+        @Override
+        public long getPortsProbedMax() {
+            return METRICS.getPortsProbed().getMax();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.rachitskillisaurus.portreserve;
+
+/**
+ * JMX view of {@link PortReservationMetrics}, registered as {@value PortReservationMetrics#OBJECT_NAME}.  Times are in
+ * microseconds.
+ */
+public interface PortReservationMetricsMBean {
+    long getLiveReservations();
+
+    long getReservationsCreated();
+
+    long getReservationsClosed();
+
+    long getInterceptedBinds();
+
+    long getPassThroughBinds();
+
+    long getTransfers();
+
+    double getTransferTimeMeanMicros();
+
+    long getTransferTime99thPercentileMicros();
+
+    long getTransferTimeMaxMicros();
+
+    double getReserveTimeMeanMicros();
+
+    long getReserveTime99thPercentileMicros();
+
+    double getPortsProbedMean();
+
+    long getPortsProbedMax();
+}
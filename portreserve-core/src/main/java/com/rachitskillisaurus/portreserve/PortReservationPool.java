@@ -0,0 +1,198 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of ready, already bound {@link PortReservation}s on top of a {@link PortReservationProvider}.  A background
+ * thread keeps every address that has been asked for stocked with reservations, so {@link #take(InetAddress)} is
+ * normally a queue poll with no syscalls on the caller's thread.
+ * <p/>
+ * The number of reservations kept ready per address follows demand: it starts at {@code minIdle} and grows towards
+ * {@code maxIdle} for addresses that are drained quickly.  Reservations come from the operating system's ephemeral
+ * port range (see {@link PortReservationProvider#reserveEphemeralPort(InetAddress)}).
+ *
+ * @see com.rachitskillisaurus.portreserve.PortReservationProvider
+ */
+public class PortReservationPool implements Closeable {
+    private static final long REFILL_PERIOD_MILLIS = 100;
+    private static final Object WILDCARD = new Object();
+
+    private final PortReservationProvider provider;
+    private final int minIdle;
+    private final int maxIdle;
+    private final ConcurrentHashMap<Object, Stock> stocks = new ConcurrentHashMap<Object, Stock>();
+    private final ScheduledExecutorService refiller;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param provider provider to reserve ports with
+     * @param minIdle  reservations kept ready per address regardless of demand
+     * @param maxIdle  upper bound of reservations kept ready per address
+     */
+    public PortReservationPool(PortReservationProvider provider, int minIdle, int maxIdle) {
+        if (minIdle < 0 || maxIdle < minIdle) {
+            throw new IllegalArgumentException("Invalid pool bounds [" + minIdle + ", " + maxIdle + "]");
+        }
+        this.provider = provider;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.refiller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "portreserve-pool-refill");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refiller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refill();
+            }
+        }, 0, REFILL_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public PortReservationPool(int minIdle, int maxIdle) {
+        this(PortReservationProvider.get(), minIdle, maxIdle);
+    }
+
+    /**
+     * Take a ready reservation for {@code address}, reserving one on the calling thread only if none is ready
+     *
+     * @param address interface address, {@code null} for all interfaces
+     * @return port reservation now owned by the caller
+     * @throws IOException if the pool was empty and a port could not be reserved
+     */
+    public PortReservation take(InetAddress address) throws IOException {
+        if (closed.get()) {
+            throw new IllegalStateException("Port reservation pool is closed");
+        }
+        Stock stock = stock(address);
+        stock.demand.incrementAndGet();
+        PortReservation reservation;
+        while ((reservation = stock.ready.poll()) != null) {
+            stock.size.decrementAndGet();
+            if (!reservation.isClosed()) {
+                return reservation;
+            }
+        }
+        PortReservationLogger.debug("Pool for {} is empty, reserving on caller thread", address);
+        return provider.reserveEphemeralPort(address);
+    }
+
+    public PortReservation take() throws IOException {
+        return take(null);
+    }
+
+    /**
+     * @param address interface address, {@code null} for all interfaces
+     * @return number of reservations currently ready for {@code address}
+     */
+    public int getIdle(InetAddress address) {
+        Stock stock = stocks.get(key(address));
+        return stock == null ? 0 : stock.size.get();
+    }
+
+    /**
+     * Stop refilling and close every reservation that hasn't been taken
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        refiller.shutdownNow();
+        try {
+            refiller.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Stock stock : stocks.values()) {
+            drain(stock);
+        }
+    }
+
+    private static void drain(Stock stock) {
+        PortReservation reservation;
+        while ((reservation = stock.ready.poll()) != null) {
+            stock.size.decrementAndGet();
+            try {
+                reservation.close();
+            } catch (IOException e) {
+                PortReservationLogger.error("Failed to close pooled {}", reservation);
+            }
+        }
+    }
+
+    private Stock stock(InetAddress address) {
+        Object key = key(address);
+        Stock stock = stocks.get(key);
+        if (stock == null) {
+            stock = new Stock(address, minIdle);
+            Stock existing = stocks.putIfAbsent(key, stock);
+            if (existing != null) {
+                stock = existing;
+            }
+        }
+        return stock;
+    }
+
+    private static Object key(InetAddress address) {
+        return address == null ? WILDCARD : address;
+    }
+
+    private void refill() {
+        for (Stock stock : stocks.values()) {
+            stock.adapt(minIdle, maxIdle);
+            while (!closed.get() && stock.size.get() < stock.target) {
+                try {
+                    stock.ready.offer(provider.reserveEphemeralPort(stock.address));
+                    stock.size.incrementAndGet();
+                    if (closed.get()) {
+                        /* close() stops waiting for a slow refill, it may have drained the stock before the offer */
+                        drain(stock);
+                    }
+                } catch (IOException e) {
+                    PortReservationLogger.error("Failed to refill port reservation pool: {}", e);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ready reservations for one address; {@code target} and {@code rate} are only touched by the refill thread
+     */
+    private static class Stock {
+        final InetAddress address;
+        final Queue<PortReservation> ready = new ConcurrentLinkedQueue<PortReservation>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicInteger demand = new AtomicInteger();
+        volatile int target;
+        double rate;
+
+        Stock(InetAddress address, int target) {
+            this.address = address;
+            this.target = target;
+        }
+
+        /* keep enough ready to cover two refill periods of smoothed demand */
+        void adapt(int minIdle, int maxIdle) {
+            rate = 0.75 * rate + 0.25 * demand.getAndSet(0);
+            target = Math.max(minIdle, Math.min(maxIdle, (int) Math.ceil(2 * rate)));
+        }
+    }
+}
@@ -1,17 +1,29 @@
 package com.rachitskillisaurus.portreserve;
 
 import com.rachitskillisaurus.portreserve.bb.PortReservationAgent;
-import com.rachitskillisaurus.portreserve.bb.PortReserveSocketImplConstructor;
 import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
 import com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry;
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+import com.rachitskillisaurus.portreserve.internal.PortReserveMetrics;
+import com.rachitskillisaurus.portreserve.internal.ReusePort;
+import com.rachitskillisaurus.portreserve.internal.Slf4jLogSink;
 import net.bytebuddy.agent.ByteBuddyAgent;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.SocketImpl;
 import java.net.SocketImplFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Port Reservation utility.
@@ -19,31 +31,100 @@ import java.net.SocketImplFactory;
  * @see com.rachitskillisaurus.portreserve.PortReservation
  */
 public class PortReservationProvider {
+    /* operating system picks outside of a requested range before falling back to probing */
+    private static final int EPHEMERAL_ATTEMPTS = 8;
+    /**
+     * System property holding the default reservation time to live in milliseconds
+     */
+    public static final String RESERVATION_TTL_PROPERTY = "portreserve.reservation.ttl";
+    /**
+     * System property holding how long, in milliseconds, ports that failed to bind are skipped by
+     * {@link #reserveOpenPort(InetAddress, int, int, ReservationOptions)}
+     */
+    public static final String BUSY_PORT_TTL_PROPERTY = "portreserve.busy.ttl";
+
     private ThreadLocal<PortReservationInternal> currentReservation = new ThreadLocal<PortReservationInternal>();
+    private volatile PortLeaseCoordinator leaseCoordinator;
+    private volatile InterceptionPolicy interceptionPolicy = InterceptionPolicy.always();
+    private final ReservationReaper reaper = new ReservationReaper(this);
+    private final PortAllocator allocator = new PortAllocator();
+    private volatile ReservationOptions reservationOptions = ReservationOptions.defaults();
+    private volatile long reservationTtlNanos;
     private static PortReservationProvider instance;
 
     static {
         try {
-            PortReservationAgent.premain(null, ByteBuddyAgent.install());
+            if (!PortReservationAgent.isInstalled()) {
+                /* not started with -javaagent, self-attach */
+                PortReservationAgent.premain(null, ByteBuddyAgent.install());
+            }
             if (PortReservationRegistry.class.getClassLoader() != null) {
                 throw new IllegalStateException(
                         "com.rachitskillisaurus.portreserve.PortReservationProvider " +
-                        "should be the first class you access for correct classloading");
+                        "should be the first class you access for correct classloading, " +
+                        "or run with -javaagent:portreserve-core.jar");
             }
+            installSlf4jLogSink();
+            registerMetricsMBean();
             instance = new PortReservationProvider();
+            String intercept = System.getProperty(InterceptionPolicy.INTERCEPT_PROPERTY);
+            if (intercept != null) {
+                instance.setInterceptionPolicy(InterceptionPolicy.valueOf(intercept));
+            }
+            String ttl = System.getProperty(RESERVATION_TTL_PROPERTY);
+            if (ttl != null) {
+                instance.setReservationTtl(Long.parseLong(ttl.trim()));
+            }
+            String busyTtl = System.getProperty(BUSY_PORT_TTL_PROPERTY);
+            if (busyTtl != null) {
+                instance.setBusyPortTtl(Long.parseLong(busyTtl.trim()));
+            }
+            String leaseFile = System.getProperty(PortLeaseCoordinator.LEASE_FILE_PROPERTY);
+            if (leaseFile != null) {
+                instance.setLeaseCoordinator(new PortLeaseCoordinator(new File(leaseFile)));
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Route library logging to SLF4J if it's available to this classloader; the bootstrap injected logger can't see it
+     */
+    private static void installSlf4jLogSink() {
+        try {
+            Class.forName("org.slf4j.LoggerFactory", false, PortReservationProvider.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        Slf4jLogSink.install();
+    }
+
+    private static void registerMetricsMBean() {
+        try {
+            PortReservationMetrics.registerMBean();
+        } catch (Exception e) {
+            PortReservationLogger.error("Failed to register metrics MBean: {}", e);
+        }
+    }
+
     public static PortReservationProvider get() {
         return instance;
     }
 
     private PortReservationProvider() throws Exception {
-        @SuppressWarnings("unchecked")
-        final Class <? extends SocketImpl> overriddenSocketImplClass = (Class <? extends SocketImpl>)
-                Class.forName(PortReservationAgent.SOCKET_IMPL_CLASSNAME);
+        if (!PortReservationAgent.isSocketImplProxySupported()) {
+            /* the SocketImpl could not be defined: ServerSockets keep the platform's, binds are intercepted by the agent */
+            return;
+        }
+        Class<?> overriddenSocketImplClass = Class.forName(PortReservationAgent.SOCKET_IMPL_CLASSNAME);
+        final MethodHandle newOverriddenSocketImpl = MethodHandles.publicLookup()
+                .findConstructor(overriddenSocketImplClass, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(SocketImpl.class));
+        /* the platform default the proxy would delegate to, created without the proxy */
+        final MethodHandle newPlatformSocketImpl = MethodHandles.publicLookup().findStatic(
+                overriddenSocketImplClass, PortReservationAgent.NEW_DELEGATE_METHOD,
+                MethodType.methodType(SocketImpl.class));
 
         updateSocketImplFactory(new SocketImplFactory() {
             @Override
@@ -51,15 +132,21 @@ public class PortReservationProvider {
                 try {
                     PortReservationInternal ipr = currentReservation.get();
                     if (ipr != null) {
-                        final SocketImpl originalSocketImpl = PortReserveSocketImplConstructor.socksSocketFactory.createSocketImpl();
-                        ipr.setSocketImpl(originalSocketImpl);
-                        return originalSocketImpl;
+                        /* reserved sockets use the platform default SocketImpl directly */
+                        SocketImpl platformSocketImpl = (SocketImpl) newPlatformSocketImpl.invokeExact();
+                        ipr.setSocketImpl(platformSocketImpl);
+                        return platformSocketImpl;
+                    } else if (!interceptionPolicy.interceptsNewSockets()) {
+                        /* outside of the policy, no delegation layer at all */
+                        return (SocketImpl) newPlatformSocketImpl.invokeExact();
                     } else {
-                        return overriddenSocketImplClass.newInstance();
+                        return (SocketImpl) newOverriddenSocketImpl.invokeExact();
                     }
-                } catch (InstantiationException e) {
-                    throw new RuntimeException(e);
-                } catch (IllegalAccessException e) {
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable e) {
                     throw new RuntimeException(e);
                 }
             }
@@ -70,35 +157,458 @@ public class PortReservationProvider {
         ServerSocket.setSocketFactory(socketImplFactory);
     }
 
+    /**
+     * Number of reservations currently in transfer mode.  While this is zero, intercepted binds skip reservation
+     * lookups entirely and go straight to the original socket implementation.
+     *
+     * @return number of reservations currently in transfer mode
+     */
+    public int getActiveTransfers() {
+        return PortReservationRegistry.INSTANCE.getActiveTransfers() + PortReservationRegistry.DATAGRAM.getActiveTransfers();
+    }
+
+    /**
+     * @return snapshot of reservation, transfer and bind interception metrics for this JVM
+     */
+    public PortReservationMetrics getMetrics() {
+        return PortReservationMetrics.snapshot();
+    }
+
+    /**
+     * Restrict which {@code ServerSocket}s get the intercepting {@code SocketImpl} and which reservations binds may take
+     * over.  Applies to sockets created and reservations made from now on.  Also set with
+     * {@code -Dportreserve.intercept=always|reserved|transferring}.
+     *
+     * @param interceptionPolicy interception policy
+     */
+    public void setInterceptionPolicy(InterceptionPolicy interceptionPolicy) {
+        if (interceptionPolicy == null) {
+            throw new IllegalArgumentException("interceptionPolicy");
+        }
+        PortReservationRegistry.INSTANCE.setInterceptionFilter(interceptionPolicy.getFilter());
+        PortReservationRegistry.DATAGRAM.setInterceptionFilter(interceptionPolicy.getFilter());
+        this.interceptionPolicy = interceptionPolicy;
+    }
+
+    public InterceptionPolicy getInterceptionPolicy() {
+        return interceptionPolicy;
+    }
+
+    /**
+     * Coordinate reservations with other JVMs on this host through {@code leaseCoordinator}
+     *
+     * @param leaseCoordinator a lease coordinator, or {@code null} to stop coordinating
+     */
+    public void setLeaseCoordinator(PortLeaseCoordinator leaseCoordinator) {
+        this.leaseCoordinator = leaseCoordinator;
+    }
+
+    public PortLeaseCoordinator getLeaseCoordinator() {
+        return leaseCoordinator;
+    }
+
+    /**
+     * Close reservations that are neither transferred nor closed {@code millis} after they were made.  Reservations
+     * that are dropped without being closed are reclaimed once they're garbage collected regardless of this setting.
+     * Only applies to reservations made after the call.
+     *
+     * @param millis time to live in milliseconds, {@code 0} for none
+     */
+    public void setReservationTtl(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Reservation TTL must not be negative: " + millis);
+        }
+        this.reservationTtlNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public long getReservationTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(reservationTtlNanos);
+    }
+
+    /**
+     * Skip ports that failed to bind for {@code millis} when probing for an open port, instead of binding them again.
+     * A port is forgotten as soon as a reservation on it is closed.  Defaults to one second.
+     *
+     * @param millis how long a busy port is skipped, {@code 0} to always try every port
+     */
+    public void setBusyPortTtl(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Busy port TTL must not be negative: " + millis);
+        }
+        allocator.setBusyTtlNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    public long getBusyPortTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(allocator.getBusyTtlNanos());
+    }
+
+    /**
+     * Set the options applied to TCP reservations made without explicit options
+     *
+     * @param reservationOptions default options
+     */
+    public void setReservationOptions(ReservationOptions reservationOptions) {
+        if (reservationOptions == null) {
+            throw new IllegalArgumentException("Reservation options must not be null");
+        }
+        this.reservationOptions = reservationOptions;
+    }
+
+    public ReservationOptions getReservationOptions() {
+        return reservationOptions;
+    }
+
     public PortReservation reservePort(InetSocketAddress address) throws IOException {
+        return reservePort(address, reservationOptions);
+    }
+
+    /**
+     * Reserve {@code address} with {@code options} applied to the server socket before it is bound
+     *
+     * @param address address to reserve, port {@code 0} to let the operating system pick one
+     * @param options socket options
+     * @return port reservation
+     * @throws IOException if the address could not be bound
+     */
+    public PortReservation reservePort(InetSocketAddress address, ReservationOptions options) throws IOException {
+        return reserve(address, 0, options);
+    }
+
+    /**
+     * @return {@code true} if {@link #reserveReusePort(InetSocketAddress, int)} is supported, which needs JDK 9+ on a
+     * platform with {@code SO_REUSEPORT}
+     */
+    public boolean isReusePortSupported() {
+        return ReusePort.isSupported();
+    }
+
+    /**
+     * Reserve a port with {@code listeners} listening sockets bound to it with {@code SO_REUSEPORT}.  Inside
+     * {@link PortReservation#transfer(TransferCallback)} every {@code ServerSocket} bind on the address that enables
+     * {@code SO_REUSEPORT} itself is handed one bound listener, so a server opening one listener per event loop starts
+     * on the reserved port and the kernel keeps balancing connections across its listeners without any of them being
+     * closed.  A channel can't be handed a listener: its first bind closes all of them, resetting connections still
+     * queued on them, and further channels join the port it bound.  A bind without {@code SO_REUSEPORT} takes over all
+     * of them the same way, and listeners the server didn't take over are closed once the transfer callback returns.
+     * <p/>
+     * Other processes of the same user that enable {@code SO_REUSEPORT} can bind the port while it is reserved.
+     *
+     * @param address   address to reserve, port {@code 0} to let the operating system pick one
+     * @param listeners number of listening sockets to hold
+     * @return port reservation
+     * @throws IOException                   if the address could not be bound
+     * @throws UnsupportedOperationException if {@link #isReusePortSupported()} is {@code false}
+     */
+    public PortReservation reserveReusePort(InetSocketAddress address, int listeners) throws IOException {
+        if (listeners < 1) {
+            throw new IllegalArgumentException("At least one listener is required: " + listeners);
+        }
+        if (!isReusePortSupported()) {
+            throw new UnsupportedOperationException("SO_REUSEPORT reservations are not supported on this JVM");
+        }
+        return reserve(address, listeners, reservationOptions);
+    }
+
+    private PortReservation reserve(InetSocketAddress address, int reusePortListeners, ReservationOptions options)
+            throws IOException {
+        PortLeaseCoordinator coordinator = leaseCoordinator;
+        if (coordinator == null || address.getPort() != 0) {
+            return reserve(address, reusePortListeners, options, coordinator);
+        }
+        /* ephemeral ports are only known after bind; ports leased by another process are held while binding again, so
+         * the operating system doesn't hand them out twice */
+        List<PortReservation> leasedByOther = new ArrayList<PortReservation>();
+        try {
+            for (int attempt = 0; attempt < EPHEMERAL_ATTEMPTS; attempt++) {
+                PortReservation reservation = reserve(address, reusePortListeners, options, null);
+                leasedByOther.add(reservation);
+                if (coordinator.tryAcquire(reservation.getPort())) {
+                    leasedByOther.remove(reservation);
+                    coordinator.attach(reservation.getPort(), reservation.getInternal());
+                    return reservation;
+                }
+            }
+        } finally {
+            closeQuietly(leasedByOther);
+        }
+        throw new IOException("Every port the operating system picked is leased by another process");
+    }
+
+    private PortReservation reserve(InetSocketAddress address, int reusePortListeners, ReservationOptions options,
+                                    PortLeaseCoordinator coordinator) throws IOException {
+        int port = address.getPort();
+        if (coordinator != null && port != 0 && !coordinator.tryAcquire(port)) {
+            throw new IOException("Port " + port + " is leased by another process");
+        }
+        long start = System.nanoTime();
         /* bind a server socket using original socket factory */
         PortReservation ipr = new PortReservation();
+        ipr.setOptions(options);
+        try {
+            bind(ipr.getInternal(), port, address.getAddress(), reusePortListeners, options);
+        } catch (IOException e) {
+            if (coordinator != null && port != 0) {
+                coordinator.release(port, null);
+            }
+            throw e;
+        }
+        if (coordinator != null && port != 0) {
+            coordinator.attach(port, ipr.getInternal());
+        }
+        ipr.setTracked(reaper.track(ipr, reservationTtlNanos));
+        PortReserveMetrics.INSTANCE.reservationCreated(System.nanoTime() - start);
+        return ipr;
+    }
+
+    void untrack(ReservationReaper.Tracked tracked) {
+        reaper.untrack(tracked);
+    }
+
+    private void bind(PortReservationInternal internal, int port, InetAddress address, int reusePortListeners,
+                      ReservationOptions options) throws IOException {
         try {
-            PortReservationInternal internal = ipr.getInternal();
             currentReservation.set(internal);
-            ServerSocket serverSocket = new ServerSocket(address.getPort(), 0, address.getAddress());
-            internal.setServerSocket(serverSocket);
-            /* register bound socket's SocketImpl in global map */
-            PortReservationRegistry.INSTANCE.put(address, internal);
+            /* set by the factory for every listener created, left null where ServerSockets aren't intercepted */
+            internal.setSocketImpl(null);
+            SocketImpl[] socketImpls = new SocketImpl[Math.max(1, reusePortListeners)];
+            ServerSocket[] listeners = bindListeners(internal, port, address, reusePortListeners, options, socketImpls);
+            internal.setSocketImpl(socketImpls[0]);
+            internal.setServerSocket(listeners[0]);
+            if (listeners.length > 1) {
+                internal.setReusePortListeners(Arrays.copyOfRange(listeners, 1, listeners.length),
+                                               socketImpls[1] == null ? null
+                                                       : Arrays.copyOfRange(socketImpls, 1, socketImpls.length));
+            }
+            /* register bound socket's SocketImpl in global registry under the address actually bound */
+            PortReservationRegistry.INSTANCE.put(internal);
         } finally {
             currentReservation.remove();
         }
+    }
+
+    /**
+     * Bind one listener, or {@code reusePortListeners} listeners sharing the port through {@code SO_REUSEPORT}, with
+     * {@code options} applied before bind.  The {@code SocketImpl} the factory gave each listener is stored in
+     * {@code socketImpls}.
+     */
+    private static ServerSocket[] bindListeners(PortReservationInternal internal, int port, InetAddress address,
+                                                int reusePortListeners, ReservationOptions options,
+                                                SocketImpl[] socketImpls) throws IOException {
+        ServerSocket[] listeners = new ServerSocket[socketImpls.length];
+        try {
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i] = new ServerSocket();
+                socketImpls[i] = internal.getSocketImpl();
+                options.apply(listeners[i]);
+                if (reusePortListeners != 0) {
+                    ReusePort.enable(listeners[i]);
+                }
+                /* the first bind picks the port when none was requested, the others join it */
+                listeners[i].bind(new InetSocketAddress(address, i == 0 ? port : listeners[0].getLocalPort()),
+                                  options.getBacklog());
+            }
+        } catch (IOException e) {
+            for (ServerSocket listener : listeners) {
+                if (listener != null) {
+                    listener.close();
+                }
+            }
+            throw e;
+        }
+        return listeners;
+    }
+
+    /**
+     * Bind a recycling reservation again on the address it held
+     *
+     * @return {@code false} if the address couldn't be bound
+     */
+    boolean rebind(PortReservationInternal internal, ReservationOptions options) {
+        long start = System.nanoTime();
+        try {
+            bind(internal, internal.getPort(), internal.getInetAddress(), 0, options);
+            /* the owner's close counted the reservation closed, it is live again */
+            PortReserveMetrics.INSTANCE.reservationCreated(System.nanoTime() - start);
+            if (!internal.isRecycling()) {
+                /* closed for good while binding */
+                internal.close();
+            }
+            PortReservationLogger.debug("Recycled port reservation {}", internal);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Release the lease (if any) held for {@code reservation}
+     */
+    void portReleased(int port, PortReservationInternal reservation) {
+        allocator.released(port);
+        PortLeaseCoordinator coordinator = leaseCoordinator;
+        if (coordinator != null) {
+            coordinator.release(port, reservation);
+        }
+    }
+
+    /**
+     * Reserve a UDP port.  The reserved {@link DatagramSocket} is closed when code running inside
+     * {@link PortReservation#transfer(TransferCallback)} binds a {@code DatagramSocket} or
+     * {@code DatagramChannel} to the same address, right before that bind.  UDP reservations are independent of TCP
+     * reservations on the same port and are not coordinated through the lease file.
+     *
+     * @param address address to reserve, port {@code 0} to let the operating system pick one
+     * @return port reservation
+     * @throws IOException if the address could not be bound
+     */
+    public PortReservation reserveDatagramPort(InetSocketAddress address) throws IOException {
+        long start = System.nanoTime();
+        PortReservation ipr = new PortReservation();
+        PortReservationInternal internal = ipr.getInternal();
+        internal.setDatagramSocket(new DatagramSocket(address));
+        PortReservationRegistry.DATAGRAM.put(internal);
+        ipr.setTracked(reaper.track(ipr, reservationTtlNanos));
+        PortReserveMetrics.INSTANCE.reservationCreated(System.nanoTime() - start);
         return ipr;
     }
 
+    /**
+     * Reserve a UDP port chosen by the operating system from its ephemeral range
+     *
+     * @param address interface address to reserve the port on, {@code null} for all interfaces
+     * @return port reservation
+     * @throws IOException if no port could be bound
+     */
+    public PortReservation reserveEphemeralDatagramPort(InetAddress address) throws IOException {
+        return reserveDatagramPort(new InetSocketAddress(address, 0));
+    }
 
-    public PortReservation reserveOpenPort(InetAddress address, int startPort) {
-        int testPort = startPort;
-        while (testPort < 65535) {
+    /**
+     * Reserve the first UDP port in {@code [startPort, endPort]} that can be bound
+     *
+     * @param address   interface address to reserve the port on, {@code null} for all interfaces
+     * @param startPort first port to try
+     * @param endPort   last port to try
+     * @return port reservation
+     */
+    public PortReservation reserveOpenDatagramPort(InetAddress address, int startPort, int endPort) {
+        for (int testPort = startPort; testPort <= endPort; testPort++) {
             try {
-                return reservePort(new InetSocketAddress(address, testPort));
+                PortReservation reservation = reserveDatagramPort(new InetSocketAddress(address, testPort));
+                PortReserveMetrics.INSTANCE.portsProbed(testPort - startPort + 1);
+                return reservation;
             } catch (IOException exception) {
-                testPort++;
+                /* try the next port */
             }
         }
         throw new RuntimeException("Exhausted all available ports");
     }
 
+    public PortReservation reserveOpenDatagramPort(int startPort) {
+        return reserveOpenDatagramPort(null, startPort, 65534);
+    }
+
+    /* ports leased by other JVMs are skipped without attempting a bind */
+    private boolean isLeasedElsewhere(int port) {
+        PortLeaseCoordinator coordinator = leaseCoordinator;
+        return coordinator != null && coordinator.isLeasedByOther(port);
+    }
+
+    /**
+     * Reserve a port chosen by the operating system from its ephemeral range.  Costs a single bind regardless of how
+     * many ports are in use.
+     *
+     * @param address interface address to reserve the port on, {@code null} for all interfaces
+     * @return port reservation
+     * @throws IOException if no port could be bound
+     */
+    public PortReservation reserveEphemeralPort(InetAddress address) throws IOException {
+        return reservePort(new InetSocketAddress(address, 0));
+    }
+
+    /**
+     * Reserve a port chosen by the operating system, constrained to {@code [minPort, maxPort]}.  Ports handed out by the
+     * operating system outside of the range are held until a suitable one is found, so they aren't offered again; if
+     * the ephemeral range doesn't yield a suitable port after a few attempts the range is probed sequentially.
+     *
+     * @param address interface address to reserve the port on, {@code null} for all interfaces
+     * @param minPort lowest acceptable port
+     * @param maxPort highest acceptable port
+     * @return port reservation
+     */
+    public PortReservation reserveEphemeralPort(InetAddress address, int minPort, int maxPort) {
+        List<PortReservation> outOfRange = new ArrayList<PortReservation>();
+        try {
+            for (int attempt = 0; attempt < EPHEMERAL_ATTEMPTS; attempt++) {
+                PortReservation reservation = reserveEphemeralPort(address);
+                if (reservation.getPort() >= minPort && reservation.getPort() <= maxPort) {
+                    return reservation;
+                }
+                outOfRange.add(reservation);
+            }
+        } catch (IOException e) {
+            /* fall back to probing */
+        } finally {
+            closeQuietly(outOfRange);
+        }
+        return reserveOpenPort(address, minPort, maxPort);
+    }
+
+    public PortReservation reserveEphemeralPort() throws IOException {
+        return reserveEphemeralPort(null);
+    }
+
+    /**
+     * Reserve the first port in {@code [startPort, endPort]} that can be bound
+     *
+     * @param address   interface address to reserve the port on, {@code null} for all interfaces
+     * @param startPort first port to try
+     * @param endPort   last port to try
+     * @return port reservation
+     */
+    public PortReservation reserveOpenPort(InetAddress address, int startPort, int endPort) {
+        return reserveOpenPort(address, startPort, endPort, reservationOptions);
+    }
+
+    /**
+     * Reserve a free port in {@code [startPort, endPort]} with {@code options} applied to the server socket before it
+     * is bound.  A caller probing alone gets the first free port; concurrent callers start from per-thread cursors
+     * spread over the range and skip ports that recently failed to bind, see {@link #setBusyPortTtl(long)}.
+     *
+     * @param address   interface address to reserve the port on, {@code null} for all interfaces
+     * @param startPort first port to try
+     * @param endPort   last port to try
+     * @param options   socket options
+     * @return port reservation
+     * @throws RuntimeException if no port in the range could be reserved
+     */
+    public PortReservation reserveOpenPort(InetAddress address, int startPort, int endPort,
+                                           ReservationOptions options) {
+        PortAllocator.Probe probe = allocator.probe(startPort, endPort);
+        try {
+            for (int testPort = probe.next(); testPort >= 0; testPort = probe.next()) {
+                if (isLeasedElsewhere(testPort)) {
+                    continue;
+                }
+                try {
+                    PortReservation reservation = reservePort(new InetSocketAddress(address, testPort), options);
+                    probe.reserved(testPort);
+                    PortReserveMetrics.INSTANCE.portsProbed(probe.getProbed());
+                    return reservation;
+                } catch (IOException exception) {
+                    probe.busy(testPort);
+                }
+            }
+        } finally {
+            probe.done();
+        }
+        throw new RuntimeException("Exhausted all available ports");
+    }
+
+    public PortReservation reserveOpenPort(InetAddress address, int startPort) {
+        return reserveOpenPort(address, startPort, 65534);
+    }
+
     public PortReservation reserveOpenPort(int startPort) {
         return reserveOpenPort(null, startPort);
     }
@@ -106,4 +616,71 @@ public class PortReservationProvider {
     public PortReservation reserveOpenPort() {
         return reserveOpenPort(1024);
     }
+
+    /**
+     * Reserve {@code count} ports in a single pass over the port space starting at {@code startPort}.  Probing continues
+     * from the last port tried rather than restarting for every reservation.  Either all {@code count} ports are
+     * reserved or none are.
+     *
+     * @param count      number of ports to reserve
+     * @param address    interface address to reserve the ports on, {@code null} for all interfaces
+     * @param startPort  first port to try
+     * @param contiguous if {@code true} the reserved ports form a single block of consecutive ports
+     * @return {@code count} port reservations in ascending port order
+     * @throws RuntimeException if not enough ports could be reserved
+     */
+    public List<PortReservation> reserveOpenPorts(int count, InetAddress address, int startPort, boolean contiguous) {
+        List<PortReservation> reservations = new ArrayList<PortReservation>(count);
+        int testPort = startPort;
+        int lastReserved = startPort - 1;
+        while (reservations.size() < count && testPort < 65535) {
+            if (isLeasedElsewhere(testPort)) {
+                if (contiguous) {
+                    closeQuietly(reservations);
+                    reservations.clear();
+                }
+                testPort++;
+                continue;
+            }
+            try {
+                reservations.add(reservePort(new InetSocketAddress(address, testPort)));
+                PortReserveMetrics.INSTANCE.portsProbed(testPort - lastReserved);
+                lastReserved = testPort;
+            } catch (IOException exception) {
+                if (contiguous) {
+                    /* block broken, start a new one after the busy port */
+                    closeQuietly(reservations);
+                    reservations.clear();
+                }
+            }
+            testPort++;
+        }
+        if (reservations.size() < count) {
+            closeQuietly(reservations);
+            throw new RuntimeException("Exhausted all available ports");
+        }
+        return reservations;
+    }
+
+    public List<PortReservation> reserveOpenPorts(int count, InetAddress address, int startPort) {
+        return reserveOpenPorts(count, address, startPort, false);
+    }
+
+    public List<PortReservation> reserveOpenPorts(int count, int startPort) {
+        return reserveOpenPorts(count, null, startPort);
+    }
+
+    public List<PortReservation> reserveOpenPorts(int count) {
+        return reserveOpenPorts(count, 1024);
+    }
+
+    private static void closeQuietly(Iterable<PortReservation> reservations) {
+        for (PortReservation reservation : reservations) {
+            try {
+                reservation.close();
+            } catch (IOException e) {
+                PortReservationLogger.error("Failed to close {}", reservation);
+            }
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.bootstrap.ReservationRecycler;
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds a recycling reservation again, with the options it was made with, right after its owner closed the port.  A
+ * channel registered with a selector may only release its file descriptor on the selector's next wakeup, in which case
+ * binding is retried in the background rather than on the closing thread.
+ */
+final class PortReservationRecycler implements ReservationRecycler {
+    /* how long and how often binding is retried while the owner's socket is still closing */
+    private static final long TIMEOUT_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 10;
+
+    private static ScheduledExecutorService executor;
+
+    private final PortReservationProvider provider;
+    private final ReservationOptions options;
+
+    PortReservationRecycler(PortReservationProvider provider, ReservationOptions options) {
+        this.provider = provider;
+        this.options = options;
+    }
+
+    @Override
+    public void recycle(final PortReservationInternal internal) {
+        if (provider.rebind(internal, options)) {
+            return;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!internal.isRecycling() || provider.rebind(internal, options)) {
+                    return;
+                }
+                if (System.nanoTime() - deadline < 0) {
+                    getExecutor().schedule(this, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    PortReservationLogger.error("Failed to recycle port reservation on port {}", internal.getPort());
+                    internal.setRecycler(null);
+                    provider.portReleased(internal.getPort(), internal);
+                }
+            }
+        }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "portreserve-recycler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
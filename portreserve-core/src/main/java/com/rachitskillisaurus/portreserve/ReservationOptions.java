@@ -0,0 +1,103 @@
+package com.rachitskillisaurus.portreserve;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * Socket options applied to a reservation's server socket before it is bound.  A {@code ServerSocket} bound inside the
+ * transfer is handed the bound socket on every JDK, so options that only take effect before {@code bind} or
+ * {@code listen} - the accept backlog, a receive buffer above 64K that accepted connections should inherit,
+ * {@code SO_REUSEADDR} - have to be set on the reservation instead of by the server.  A {@code ServerSocketChannel}
+ * binds a socket of its own once the reservation is released, these options don't carry over to it.
+ * <p/>
+ * Instances are immutable; every option left unset keeps the platform default.  Pass options to
+ * {@link PortReservationProvider#reservePort(java.net.InetSocketAddress, ReservationOptions)} and
+ * {@link PortReservationProvider#reserveOpenPort(java.net.InetAddress, int, int, ReservationOptions)}, or make them the
+ * default for every TCP reservation with {@link PortReservationProvider#setReservationOptions(ReservationOptions)}.
+ */
+public final class ReservationOptions {
+    private static final ReservationOptions DEFAULTS = new ReservationOptions(0, null, null);
+
+    private final int backlog;
+    private final Integer receiveBufferSize;
+    private final Boolean reuseAddress;
+
+    private ReservationOptions(int backlog, Integer receiveBufferSize, Boolean reuseAddress) {
+        this.backlog = backlog;
+        this.receiveBufferSize = receiveBufferSize;
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * Platform defaults for every option
+     */
+    public static ReservationOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @param backlog maximum length of the queue of incoming connections, {@code 0} for the platform default
+     * @return these options with the accept backlog set
+     */
+    public ReservationOptions backlog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("Backlog must not be negative: " + backlog);
+        }
+        return new ReservationOptions(backlog, receiveBufferSize, reuseAddress);
+    }
+
+    /**
+     * @param size {@code SO_RCVBUF} of the listening socket, inherited by accepted connections
+     * @return these options with the receive buffer size set
+     */
+    public ReservationOptions receiveBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Receive buffer size must be positive: " + size);
+        }
+        return new ReservationOptions(backlog, size, reuseAddress);
+    }
+
+    /**
+     * @param reuseAddress {@code SO_REUSEADDR} of the listening socket
+     * @return these options with {@code SO_REUSEADDR} set
+     */
+    public ReservationOptions reuseAddress(boolean reuseAddress) {
+        return new ReservationOptions(backlog, receiveBufferSize, reuseAddress);
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return {@code SO_RCVBUF} to set, {@code null} for the platform default
+     */
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * @return {@code SO_REUSEADDR} to set, {@code null} for the platform default
+     */
+    public Boolean getReuseAddress() {
+        return reuseAddress;
+    }
+
+    /**
+     * Apply every option but the backlog, which is passed to {@code bind}, to an unbound socket
+     */
+    void apply(ServerSocket serverSocket) throws IOException {
+        if (receiveBufferSize != null) {
+            serverSocket.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (reuseAddress != null) {
+            serverSocket.setReuseAddress(reuseAddress);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReservationOptions{backlog=" + backlog + ", receiveBufferSize=" + receiveBufferSize + ", reuseAddress="
+               + reuseAddress + '}';
+    }
+}
@@ -0,0 +1,146 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes reservations that are no longer reachable, or that outlived their time to live, on a background thread.
+ * <p/>
+ * Every reservation is tracked through a {@link PhantomReference} to its {@link PortReservation}; the registry only
+ * holds the {@link PortReservationInternal}, so a reservation nobody closed becomes phantom reachable once its owner
+ * drops it.  Reservations that were transferred are left alone, their socket belongs to the server that took it over.
+ * Tracking costs the reserving thread one allocation and a concurrent set insert; everything else happens on the
+ * reaper thread.
+ */
+final class ReservationReaper {
+    /* how often time to live deadlines are checked */
+    private static final long SCAN_MILLIS = 100;
+
+    private final ReferenceQueue<PortReservation> queue = new ReferenceQueue<PortReservation>();
+    /* keeps the references themselves reachable until they are reaped or their reservation is closed */
+    private final Set<Tracked> tracked = Collections.newSetFromMap(new ConcurrentHashMap<Tracked, Boolean>());
+    private final PortReservationProvider provider;
+    private volatile Thread thread;
+
+    ReservationReaper(PortReservationProvider provider) {
+        this.provider = provider;
+    }
+
+    static final class Tracked extends PhantomReference<PortReservation> {
+        private final PortReservationInternal internal;
+        /* System.nanoTime() deadline, 0 for none */
+        private final long deadline;
+
+        private Tracked(PortReservation reservation, ReferenceQueue<PortReservation> queue, long ttlNanos) {
+            super(reservation, queue);
+            this.internal = reservation.getInternal();
+            this.deadline = ttlNanos > 0 ? Math.max(1, System.nanoTime() + ttlNanos) : 0;
+        }
+    }
+
+    /**
+     * Start tracking {@code reservation}
+     *
+     * @param reservation a newly created reservation
+     * @param ttlNanos    time to live, {@code 0} for none
+     * @return handle to pass to {@link #untrack(Tracked)} once the reservation is closed
+     */
+    Tracked track(PortReservation reservation, long ttlNanos) {
+        Tracked handle = new Tracked(reservation, queue, ttlNanos);
+        tracked.add(handle);
+        if (thread == null) {
+            start();
+        }
+        return handle;
+    }
+
+    void untrack(Tracked handle) {
+        if (handle != null) {
+            tracked.remove(handle);
+            handle.clear();
+        }
+    }
+
+    int size() {
+        return tracked.size();
+    }
+
+    private synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        Thread reaper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, "portreserve-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+        thread = reaper;
+    }
+
+    private void reap() {
+        long nextScan = System.nanoTime();
+        while (true) {
+            try {
+                Reference<? extends PortReservation> reference = queue.remove(SCAN_MILLIS);
+                while (reference != null) {
+                    Tracked handle = (Tracked) reference;
+                    if (tracked.remove(handle)) {
+                        /* nobody can transfer it again, a server owning the port closes it for good */
+                        handle.internal.setRecycler(null);
+                        reclaim(handle, "unreachable");
+                    }
+                    reference = queue.poll();
+                }
+                if (System.nanoTime() - nextScan >= 0) {
+                    expire();
+                    nextScan = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SCAN_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                PortReservationLogger.error("Reaping reservations failed: {}", e);
+            }
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        for (Tracked handle : tracked) {
+            if (handle.internal.isClosed() && !handle.internal.isRecycling()) {
+                tracked.remove(handle);
+            } else if (handle.deadline != 0 && now - handle.deadline >= 0
+                    && !handle.internal.isInTransferMode() && tracked.remove(handle)) {
+                reclaim(handle, "expired");
+            }
+        }
+    }
+
+    private void reclaim(Tracked handle, String reason) {
+        PortReservationInternal internal = handle.internal;
+        if (internal.isTransferred() || internal.isClosed()) {
+            return;
+        }
+        int port = internal.getPort();
+        PortReservationLogger.info("Reclaiming {} port reservation {}", reason, internal);
+        try {
+            internal.close();
+        } catch (IOException e) {
+            PortReservationLogger.error("Failed to close {}", internal);
+        }
+        if (!internal.isDatagram()) {
+            provider.portReleased(port, internal);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bootstrap.TransferScope;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Propagation of the current transfer to work handed to other threads.
+ * <p/>
+ * A transfer is visible to the thread running the {@link TransferCallback} and to threads it starts.  Servers that bind
+ * on a pre-existing thread pool don't see it unless the tasks they submit are wrapped here, the same way a logging or
+ * tracing context would be propagated:
+ * <pre>
+ * reservation.transfer(new TransferCallback&lt;Server&gt;() {
+ *     public Server transfer() {
+ *         return new Server(reservation.getPort(), TransferContext.wrap(workerPool));
+ *     }
+ * });
+ * </pre>
+ */
+public final class TransferContext {
+    private TransferContext() {
+    }
+
+    /**
+     * @param task task to run within the transfer current on the calling thread
+     * @return {@code task}, running within the transfer current on the calling thread if there is one
+     */
+    public static Runnable wrap(final Runnable task) {
+        final TransferScope scope = TransferScope.current();
+        if (scope == null) {
+            return task;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                TransferScope previous = scope.enter();
+                try {
+                    task.run();
+                } finally {
+                    TransferScope.restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param task task to run within the transfer current on the calling thread
+     * @return {@code task}, running within the transfer current on the calling thread if there is one
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final TransferScope scope = TransferScope.current();
+        if (scope == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                TransferScope previous = scope.enter();
+                try {
+                    return task.call();
+                } finally {
+                    TransferScope.restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param executor executor to propagate transfers to
+     * @return executor running each task within the transfer current on the thread that submitted it
+     */
+    public static Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command));
+            }
+        };
+    }
+}
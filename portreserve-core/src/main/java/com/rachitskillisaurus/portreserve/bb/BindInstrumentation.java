@@ -0,0 +1,71 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.utility.JavaModule;
+
+import java.lang.instrument.Instrumentation;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.security.ProtectionDomain;
+
+import static net.bytebuddy.matcher.ElementMatchers.isSubTypeOf;
+import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.none;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Binds that can't be intercepted through a {@code SocketImplFactory} are intercepted by retransforming the platform
+ * classes instead: {@link java.nio.channels.ServerSocketChannel}s never use the factory, neither do
+ * {@link java.net.ServerSocket}s if the intercepting {@code SocketImpl} could not be defined, and UDP sockets and
+ * channels are always intercepted this way.  The only part of the library that
+ * needs ByteBuddy at runtime; only loaded once ByteBuddy is known to be on the classpath.
+ */
+class BindInstrumentation {
+    static void install(Instrumentation instrumentation, boolean serverSockets) {
+        ElementMatcher.Junction<TypeDescription> types = named(PortReservationAgent.SERVER_SOCKET_CHANNEL_CLASSNAME);
+        if (serverSockets) {
+            types = types.or(named(PortReservationAgent.SERVER_SOCKET_CLASSNAME));
+        }
+        new AgentBuilder.Default()
+                .disableClassFormatChanges()
+                .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+                /* advice inlined into java.base calls into the bootstrap jar's unnamed module */
+                .assureReadEdgeTo(instrumentation, PortReserveReleaseMethods.class)
+                .ignore(none())
+                .type(types)
+                .transform(new AgentBuilder.Transformer() {
+                    @Override
+                    public DynamicType.Builder<?> transform(DynamicType.Builder<?> builder,
+                                                            TypeDescription typeDescription,
+                                                            ClassLoader classLoader,
+                                                            JavaModule module,
+                                                            ProtectionDomain protectionDomain) {
+                        return builder.visit(Advice.to(PortReserveReleaseAdvice.class)
+                                                     .on(named("bind").and(takesArguments(2))))
+                                      .visit(Advice.to(PortReserveCloseAdvice.class)
+                                                     .on(named("close").or(named("implCloseSelectableChannel"))
+                                                                 .and(takesArguments(0))));
+                    }
+                })
+                /* DatagramSocket delegates to platform subclasses that override bind on later JDKs */
+                .type(nameStartsWith("java.net.").and(isSubTypeOf(DatagramSocket.class))
+                              .or(named(PortReservationAgent.DATAGRAM_CHANNEL_CLASSNAME)))
+                .transform(new AgentBuilder.Transformer() {
+                    @Override
+                    public DynamicType.Builder<?> transform(DynamicType.Builder<?> builder,
+                                                            TypeDescription typeDescription,
+                                                            ClassLoader classLoader,
+                                                            JavaModule module,
+                                                            ProtectionDomain protectionDomain) {
+                        return builder.visit(Advice.to(PortReserveDatagramReleaseAdvice.class)
+                                                     .on(named("bind").and(takesArguments(SocketAddress.class))));
+                    }
+                })
+                .installOn(instrumentation);
+    }
+}
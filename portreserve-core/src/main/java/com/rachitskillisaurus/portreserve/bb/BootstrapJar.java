@@ -0,0 +1,98 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+/**
+ * Locates the bootstrap jar written at build time by {@link PortReserveSocketImplGenerator}.  When the library runs
+ * from an exploded classes directory the jar is used in place; when it runs from a jar the bootstrap jar is copied
+ * once into a per-user cache directory under a content derived name and reused by every later JVM.
+ */
+class BootstrapJar {
+    static final String RESOURCE = "META-INF/portreserve/bootstrap.jar";
+    static final String CACHE_DIR_PROPERTY = "portreserve.bootstrap.cache";
+
+    static JarFile open() throws IOException {
+        ClassLoader classLoader = BootstrapJar.class.getClassLoader();
+        URL url = classLoader == null ? ClassLoader.getSystemResource(RESOURCE) : classLoader.getResource(RESOURCE);
+        if (url == null) {
+            throw new IllegalStateException(RESOURCE + " not found, portreserve-core classes were not post-processed "
+                                            + "by " + PortReserveSocketImplGenerator.class.getName());
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new JarFile(new File(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        InputStream in = url.openStream();
+        byte[] bytes;
+        try {
+            bytes = read(in);
+        } finally {
+            in.close();
+        }
+        return new JarFile(cache(bytes));
+    }
+
+    private static File cache(byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        File dir = cacheDir();
+        File cached = new File(dir, "bootstrap-" + Long.toHexString(crc.getValue()) + ".jar");
+        if (cached.isFile() && cached.length() == bytes.length && Arrays.equals(bytes, Files.readAllBytes(cached.toPath()))) {
+            return cached;
+        }
+        /* write and rename so concurrently starting JVMs never see a partial jar */
+        File temp = File.createTempFile("bootstrap", ".tmp", dir);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+        return cached;
+    }
+
+    private static File cacheDir() throws IOException {
+        String configured = System.getProperty(CACHE_DIR_PROPERTY);
+        File dir = configured != null ? new File(configured)
+                : new File(System.getProperty("java.io.tmpdir"), "portreserve-" + System.getProperty("user.name"));
+        if (!dir.isDirectory()) {
+            try {
+                Files.createDirectories(dir.toPath(), PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createDirectories(dir.toPath());
+            }
+        }
+        return dir;
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
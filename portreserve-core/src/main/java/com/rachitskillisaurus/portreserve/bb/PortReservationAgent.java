@@ -1,113 +1,150 @@
 package com.rachitskillisaurus.portreserve.bb;
 
-import com.rachitskillisaurus.portreserve.bootstrap.HasDelegate;
+import com.rachitskillisaurus.portreserve.bootstrap.SocketImplDefiner;
 import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
-import com.rachitskillisaurus.portreserve.internal.OriginalSocksSocketImplFactory;
-import net.bytebuddy.ByteBuddy;
-import net.bytebuddy.description.method.MethodDescription;
-import net.bytebuddy.description.type.TypeDescription;
-import net.bytebuddy.dynamic.ClassFileLocator;
-import net.bytebuddy.dynamic.ClassFileLocator.ForClassLoader;
-import net.bytebuddy.dynamic.ClassFileLocator.Resolution;
-import net.bytebuddy.dynamic.DynamicType.Unloaded;
-import net.bytebuddy.dynamic.loading.ClassInjector;
-import net.bytebuddy.implementation.FieldAccessor;
-import net.bytebuddy.implementation.MethodDelegation;
-import net.bytebuddy.implementation.SuperMethodCall;
-import net.bytebuddy.implementation.bind.MethodNameEqualityResolver;
-import net.bytebuddy.matcher.ElementMatchers;
-import net.bytebuddy.pool.TypePool;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
 import java.net.SocketImpl;
 import java.util.Collections;
-import java.util.HashMap;
-
-import static net.bytebuddy.implementation.MethodDelegation.to;
-import static net.bytebuddy.matcher.ElementMatchers.any;
-import static net.bytebuddy.matcher.ElementMatchers.named;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * Installs PortReserve's instrumentation.  Run as a {@code -javaagent} (the portreserve-core jar carries the
+ * {@code Premain-Class} manifest entry) to install it at JVM start; otherwise
+ * {@link com.rachitskillisaurus.portreserve.PortReservationProvider} self-attaches on first use.
+ *
  * @author Dmitry Spikhalskiy <dmitry@spikhalskiy.com>
  */
 public class PortReservationAgent {
     public final static String SOCKET_IMPL_CLASSNAME = "java.net.PortReserveSocketImpl";
+    public final static String DELEGATE_FIELD = "delegate";
+    /* public static method of the generated SocketImpl creating the platform default it delegates to */
+    public final static String NEW_DELEGATE_METHOD = "newDelegate";
+    public final static String SERVER_SOCKET_CHANNEL_CLASSNAME = "sun.nio.ch.ServerSocketChannelImpl";
+    public final static String SERVER_SOCKET_CLASSNAME = "java.net.ServerSocket";
+    public final static String DATAGRAM_CHANNEL_CLASSNAME = "sun.nio.ch.DatagramChannelImpl";
+    /* any class from the bootstrap jar outside of java.net, loadable on every JDK once the jar is appended */
+    private final static String BOOTSTRAP_MARKER_CLASSNAME =
+            "com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry";
+    /* set once installed; a system property so copies of this class in other classloaders see it too */
+    public final static String INSTALLED_PROPERTY = "portreserve.agent.installed";
 
-    public static void premain(String arguments, Instrumentation instrumentation) {
+    public static synchronized void premain(String arguments, Instrumentation instrumentation) {
+        if (isInstalled()) {
+            return;
+        }
         try {
-            File bytecodeDir = createTempDirectory();
-            bytecodeDir.deleteOnExit();
-            final Unloaded<? extends SocketImpl> unloadedSocketClass = generateSocketImpl();
-            injectClassAndDependenciesToBootstrap(unloadedSocketClass, bytecodeDir, instrumentation);
+            /* the SocketImpl and everything it touches were generated and packaged at build time; they are already
+             * on the bootstrap class path if the Boot-Class-Path manifest entry found the bootstrap jar */
+            if (!isBootstrapped()) {
+                instrumentation.appendToBootstrapClassLoaderSearch(BootstrapJar.open());
+            }
+            if (!isSocketImplProxySupported()) {
+                defineSocketImpl(instrumentation);
+            }
+            boolean socketImplProxied = isSocketImplProxySupported();
+            if (isByteBuddyAvailable()) {
+                BindInstrumentation.install(instrumentation, !socketImplProxied);
+            } else if (socketImplProxied) {
+                PortReservationLogger.info("ByteBuddy not found, {} and UDP binds will not be transferred",
+                                           SERVER_SOCKET_CHANNEL_CLASSNAME);
+            } else {
+                PortReservationLogger.error("ByteBuddy not found, {} binds will not be transferred", SERVER_SOCKET_CLASSNAME);
+            }
+            System.setProperty(INSTALLED_PROPERTY, Boolean.TRUE.toString());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static Unloaded<? extends SocketImpl> generateSocketImpl() {
-        MethodDelegation delegateField =
-                MethodDelegation.toInstanceField(SocketImpl.class, "delegate")
-                    .defineAmbiguityResolver(MethodNameEqualityResolver.INSTANCE);
+    public static void agentmain(String arguments, Instrumentation instrumentation) {
+        premain(arguments, instrumentation);
+    }
 
-        return new ByteBuddy()
-                .subclass(SocketImpl.class)
-                .name(SOCKET_IMPL_CLASSNAME)
-                .method(ElementMatchers.<MethodDescription>any()).intercept(delegateField)
-                .implement(HasDelegate.class).intercept(FieldAccessor.ofBeanProperty())
-                .constructor(any())
-                .intercept(to(PortReserveSocketImplConstructor.class).andThen(SuperMethodCall.INSTANCE))
-                .method(named("bind")).intercept(to(PortReserveSocketImplMethods.class))
-                .method(named("close")).intercept(to(PortReserveSocketImplMethods.class))
-                .make();
+    /**
+     * @return {@code true} if the agent was already installed in this JVM, by {@code -javaagent} or self-attach
+     */
+    public static boolean isInstalled() {
+        return Boolean.getBoolean(INSTALLED_PROPERTY);
     }
 
-    private static void injectClassAndDependenciesToBootstrap(final Unloaded<? extends SocketImpl> unloadedSocketClass,
-                                                              File bytecodeDir, Instrumentation instrumentation) {
-        injectWithoutLoad("com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry",
-                          bytecodeDir, instrumentation);
-        injectWithoutLoad("com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal",
-                          bytecodeDir, instrumentation);
-        injectWithoutLoad("com.rachitskillisaurus.portreserve.bootstrap.HasDelegate",
-                          bytecodeDir, instrumentation);
+    /**
+     * {@value #SOCKET_IMPL_CLASSNAME} is loaded from the bootstrap jar on JDK 8 and defined by
+     * {@link #defineSocketImpl(Instrumentation)} on JDK 9+.  Should that fail {@code ServerSocket}s keep the platform's
+     * {@code SocketImpl} and their binds are intercepted by {@link BindInstrumentation} instead.
+     *
+     * @return {@code true} if {@code ServerSocket}s are transferred by swapping their {@code SocketImpl}
+     */
+    public static boolean isSocketImplProxySupported() {
+        return isBootstrapLoadable(SOCKET_IMPL_CLASSNAME);
+    }
 
-        ClassInjector.UsingInstrumentation
-                .of(bytecodeDir, ClassInjector.UsingInstrumentation.Target.BOOTSTRAP, instrumentation).inject(
-                    new HashMap<TypeDescription, byte[]>() {{
-                        put(unloadedSocketClass.getTypeDescription(), unloadedSocketClass.getBytes());
-                        put(new TypeDescription.ForLoadedType(PortReservationLogger.class),
-                            ClassFileLocator.ForClassLoader.read(PortReservationLogger.class).resolve());
-                        put(new TypeDescription.ForLoadedType(PortReserveSocketImplConstructor.class),
-                            ClassFileLocator.ForClassLoader.read(PortReserveSocketImplConstructor.class).resolve());
-                        put(new TypeDescription.ForLoadedType(PortReserveSocketImplMethods.class),
-                            ClassFileLocator.ForClassLoader.read(PortReserveSocketImplMethods.class).resolve());
-                        put(new TypeDescription.ForLoadedType(OriginalSocksSocketImplFactory.class),
-                            ClassFileLocator.ForClassLoader.read(OriginalSocksSocketImplFactory.class).resolve());
-                    }}
-        );
+    /**
+     * On JDK 9+ {@code java.net} belongs to {@code java.base}, so the generated {@code SocketImpl} is defined there
+     * through {@link SocketImplDefiner}: {@code java.base} is made to read the bootstrap jar's unnamed module, which
+     * the class refers to, and to open {@code java.net} to it.  The class file is read from this library's own
+     * resources, as resources on an appended bootstrap class path can't be looked up.  Does nothing on JDK 8.
+     */
+    private static void defineSocketImpl(Instrumentation instrumentation) {
+        try {
+            Method getModule;
+            try {
+                getModule = Class.class.getMethod("getModule");
+            } catch (NoSuchMethodException e) {
+                return;
+            }
+            Object javaBase = getModule.invoke(SocketImpl.class);
+            Set<Object> bootstrap = Collections.singleton(
+                    getModule.invoke(Class.forName(BOOTSTRAP_MARKER_CLASSNAME, false, null)));
+            Instrumentation.class.getMethod("redefineModule", getModule.getReturnType(), Set.class, Map.class,
+                                            Map.class, Set.class, Map.class)
+                    .invoke(instrumentation, javaBase, bootstrap, Collections.emptyMap(),
+                            Collections.singletonMap(SocketImpl.class.getPackage().getName(), bootstrap),
+                            Collections.emptySet(), Collections.emptyMap());
+            SocketImplDefiner.define(readResource(SocketImplDefiner.resource()));
+        } catch (Exception e) {
+            PortReservationLogger.error("Failed to define " + SOCKET_IMPL_CLASSNAME + ", " + SERVER_SOCKET_CLASSNAME
+                                        + " binds will be released instead of transferred: {}", e);
+        }
     }
 
-    private static void injectWithoutLoad(String className, File bytecodeDir, Instrumentation instrumentation) {
+    private static byte[] readResource(String name) throws IOException {
+        ClassLoader classLoader = PortReservationAgent.class.getClassLoader();
+        InputStream in = classLoader == null ? ClassLoader.getSystemResourceAsStream(name)
+                : classLoader.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException(name + " not found");
+        }
         try {
-            final TypeDescription td = TypePool.Default.ofClassPath().describe(className).resolve();
-            final Resolution locate = ForClassLoader.ofClassPath().locate(className);
-            ClassInjector.UsingInstrumentation
-                    .of(bytecodeDir, ClassInjector.UsingInstrumentation.Target.BOOTSTRAP, instrumentation).inject(
-                    Collections.singletonMap(td, locate.resolve()));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return BootstrapJar.read(in);
+        } finally {
+            in.close();
         }
     }
 
-    private static File createTempDirectory() throws IOException {
-        final File temp = File.createTempFile("temp", Long.toString(System.nanoTime()));
-        if (!(temp.delete())) {
-            throw new IOException("Could not delete temp file: " + temp.getAbsolutePath());
+    private static boolean isBootstrapped() {
+        return isBootstrapLoadable(BOOTSTRAP_MARKER_CLASSNAME);
+    }
+
+    private static boolean isBootstrapLoadable(String className) {
+        try {
+            Class.forName(className, false, null);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
         }
-        if (!(temp.mkdir())) {
-            throw new IOException("Could not create temp directory: " + temp.getAbsolutePath());
+    }
+
+    private static boolean isByteBuddyAvailable() {
+        try {
+            Class.forName("net.bytebuddy.agent.builder.AgentBuilder", false, PortReservationAgent.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
         }
-        return temp;
     }
 }
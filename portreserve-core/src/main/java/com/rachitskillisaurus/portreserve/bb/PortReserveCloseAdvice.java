@@ -0,0 +1,17 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import net.bytebuddy.asm.Advice;
+
+import java.io.IOException;
+
+/**
+ * Advice inlined into {@code sun.nio.ch.ServerSocketChannelImpl#implCloseSelectableChannel()} and, where binds are
+ * intercepted by {@link PortReserveReleaseAdvice}, {@code java.net.ServerSocket#close()}.  Kept trivial so the inlined
+ * code only depends on bootstrap visible classes.
+ */
+public class PortReserveCloseAdvice {
+    @Advice.OnMethodExit
+    public static void close(@Advice.This Object owner) throws IOException {
+        PortReserveReleaseMethods.closed(owner);
+    }
+}
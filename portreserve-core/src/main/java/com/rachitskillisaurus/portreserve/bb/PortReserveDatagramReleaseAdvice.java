@@ -0,0 +1,18 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import net.bytebuddy.asm.Advice;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * Advice inlined into the {@code bind(SocketAddress)} methods of {@code java.net.DatagramSocket}, the platform's
+ * subclasses of it and {@code sun.nio.ch.DatagramChannelImpl}.  Kept trivial so the inlined code only depends on
+ * bootstrap visible classes.
+ */
+public class PortReserveDatagramReleaseAdvice {
+    @Advice.OnMethodEnter
+    public static void bind(@Advice.Argument(0) SocketAddress local) throws IOException {
+        PortReserveReleaseMethods.bindDatagram(local);
+    }
+}
@@ -0,0 +1,18 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import net.bytebuddy.asm.Advice;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * Advice inlined into {@code sun.nio.ch.ServerSocketChannelImpl#bind(SocketAddress, int)} and, where the platform
+ * doesn't let {@value PortReservationAgent#SOCKET_IMPL_CLASSNAME} load, {@code java.net.ServerSocket#bind(SocketAddress,
+ * int)}.  Kept trivial so the inlined code only depends on bootstrap visible classes.
+ */
+public class PortReserveReleaseAdvice {
+    @Advice.OnMethodEnter
+    public static void bind(@Advice.This Object owner, @Advice.Argument(0) SocketAddress local) throws IOException {
+        PortReserveReleaseMethods.bind(owner, local);
+    }
+}
@@ -0,0 +1,94 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry;
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+import com.rachitskillisaurus.portreserve.internal.PortReserveMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bind interception for sockets whose {@code SocketImpl} can't be swapped: {@link java.nio.channels.ServerSocketChannel}s,
+ * which own their file descriptor from construction, {@link java.net.ServerSocket}s where the intercepting
+ * {@code SocketImpl} could not be defined, and every UDP socket and channel.
+ * <p/>
+ * Instead of handing over the reserved socket, the reservation is released right before the socket's own bind on the
+ * same thread, so the port is only unprotected for the duration of two syscalls.  Sockets that took over a recycling
+ * reservation are remembered until they are closed, at which point the reservation binds the port again.
+ * <p/>
+ * A reservation holding several {@code SO_REUSEPORT} listeners can't hand them over one by one either.  The first bind
+ * releases all of them, so no listener is left taking connections that would be reset once the transfer ends, and
+ * further binds enabling {@code SO_REUSEPORT} join the port that bind took.
+ */
+public class PortReserveReleaseMethods {
+    /* owners of recycling reservations; weak, so a server that is never closed doesn't leak its reservation */
+    private static final Map<Object, PortReservationInternal> RECYCLING_OWNERS =
+            Collections.synchronizedMap(new WeakHashMap<Object, PortReservationInternal>());
+    /* lock free guard for closes, counted up before an owner is put; owners collected unclosed are never counted down,
+     * which only makes closes take the map's lock */
+    private static final AtomicInteger RECYCLING_OWNER_COUNT = new AtomicInteger();
+
+    public static void bind(Object owner, SocketAddress local) throws IOException {
+        PortReservationInternal released = release(PortReservationRegistry.INSTANCE, local, owner);
+        if (released != null && released.isRecycling()) {
+            RECYCLING_OWNER_COUNT.incrementAndGet();
+            if (RECYCLING_OWNERS.put(owner, released) != null) {
+                RECYCLING_OWNER_COUNT.decrementAndGet();
+            }
+        }
+    }
+
+    public static void bindDatagram(SocketAddress local) throws IOException {
+        release(PortReservationRegistry.DATAGRAM, local, null);
+    }
+
+    /**
+     * Called after a server socket or channel was closed
+     *
+     * @param owner closed socket or channel
+     */
+    public static void closed(Object owner) throws IOException {
+        if (RECYCLING_OWNER_COUNT.get() == 0) {
+            return;
+        }
+        PortReservationInternal reservation = RECYCLING_OWNERS.remove(owner);
+        if (reservation != null) {
+            RECYCLING_OWNER_COUNT.decrementAndGet();
+            PortReservationLogger.debug("Owner of port reservation {} closed", reservation);
+            reservation.ownerClosed();
+        }
+    }
+
+    private static PortReservationInternal release(PortReservationRegistry registry, SocketAddress local,
+                                                   Object owner) throws IOException {
+        if (!registry.isTransferActive()) {
+            return null;
+        }
+        if (local instanceof InetSocketAddress) {
+            InetSocketAddress bindAddress = (InetSocketAddress) local;
+            if (registry.isReserved(bindAddress.getPort())) {
+                PortReservationLogger.debug("Attempting to bind to {}", bindAddress);
+                PortReservationInternal internalPortReservation =
+                        registry.get(bindAddress.getAddress(), bindAddress.getPort());
+                if (internalPortReservation != null && internalPortReservation.isInTransferScope()) {
+                    /* a bind losing the race to another bind or a close binds as if nothing was reserved */
+                    if (internalPortReservation.takeOver()) {
+                        internalPortReservation.close();
+                        PortReservationLogger.debug("Released port reservation {} for bind", internalPortReservation);
+                        PortReserveMetrics.INSTANCE.bindIntercepted();
+                        return internalPortReservation;
+                    }
+                }
+            }
+        }
+        /* binds while no transfer is active returned above without touching shared counters */
+        PortReserveMetrics.INSTANCE.bindPassedThrough();
+        return null;
+    }
+}
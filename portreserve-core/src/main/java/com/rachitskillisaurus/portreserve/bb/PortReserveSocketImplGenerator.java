@@ -0,0 +1,239 @@
+package com.rachitskillisaurus.portreserve.bb;
+
+import com.rachitskillisaurus.portreserve.bootstrap.HasDelegate;
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.bootstrap.SocketImplDefiner;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.ClassFileVersion;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.MethodList;
+import net.bytebuddy.description.modifier.Ownership;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.description.type.TypeList;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy;
+import net.bytebuddy.implementation.FieldAccessor;
+import net.bytebuddy.implementation.MethodCall;
+import net.bytebuddy.implementation.SuperMethodCall;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketImpl;
+import java.net.SocketOption;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static net.bytebuddy.implementation.MethodDelegation.to;
+import static net.bytebuddy.matcher.ElementMatchers.any;
+import static net.bytebuddy.matcher.ElementMatchers.isDeclaredBy;
+import static net.bytebuddy.matcher.ElementMatchers.isPackagePrivate;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Build time generator of {@value PortReservationAgent#SOCKET_IMPL_CLASSNAME}.  Run during {@code process-classes}
+ * with the compiled classes directory as its argument; writes {@value BootstrapJar#RESOURCE} holding the generated
+ * class together with every class that must be loaded by the bootstrap classloader, so startup only has to append
+ * that jar to the bootstrap search path.  JDK 9+ can't load the class from there and defines it through
+ * {@link SocketImplDefiner} instead, from copies written next to the jar: the same class and, for JDK 13+, a variant
+ * wrapping the platform's {@code NioSocketImpl}.
+ * <p/>
+ * An optional second argument names a copy of the jar to write as well; the build places it next to the packaged
+ * agent jar, where the {@code Boot-Class-Path} manifest entry looks for it.
+ */
+public class PortReserveSocketImplGenerator {
+    /* classes referenced from the generated SocketImpl or from retransformed platform classes; nested classes follow */
+    static final String[] BOOTSTRAP_CLASSES = {
+            "com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry",
+            "com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal",
+            "com.rachitskillisaurus.portreserve.bootstrap.HasDelegate",
+            "com.rachitskillisaurus.portreserve.bootstrap.TransferScope",
+            "com.rachitskillisaurus.portreserve.bootstrap.InterceptionFilter",
+            "com.rachitskillisaurus.portreserve.bootstrap.ReservationRecycler",
+            "com.rachitskillisaurus.portreserve.bootstrap.SocketImplDefiner",
+            "com.rachitskillisaurus.portreserve.internal.PortReservationLogger",
+            "com.rachitskillisaurus.portreserve.internal.LogSink",
+            "com.rachitskillisaurus.portreserve.internal.AsyncLogWriter",
+            "com.rachitskillisaurus.portreserve.internal.PortReserveMetrics",
+            "com.rachitskillisaurus.portreserve.internal.StripedCounter",
+            "com.rachitskillisaurus.portreserve.internal.Histogram",
+            "com.rachitskillisaurus.portreserve.internal.ReusePort",
+            "com.rachitskillisaurus.portreserve.bb.PortReserveSocketImplMethods",
+            "com.rachitskillisaurus.portreserve.bb.PortReserveReleaseMethods"
+    };
+
+    /* JDK 8's default SocketImpl, not visible at compile time */
+    private static final TypeDescription SOCKS_SOCKET_IMPL = new TypeDescription.Latent(
+            "java.net.SocksSocketImpl", 0, TypeDescription.ForLoadedType.of(SocketImpl.class).asGenericType());
+    /* JDK 13+ marker of the platform's SocketImpls, ServerSocket only accepts through the platform path for those */
+    private static final TypeDescription PLATFORM_SOCKET_IMPL = new TypeDescription.Latent(
+            SocketImplDefiner.PLATFORM_SOCKET_IMPL_CLASSNAME, Modifier.PUBLIC | Modifier.INTERFACE | Modifier.ABSTRACT,
+            TypeDescription.Generic.UNDEFINED) {
+        /* neither nested, generic nor declaring any methods */
+        @Override
+        public TypeDescription getDeclaringType() {
+            return null;
+        }
+
+        @Override
+        public TypeList.Generic getTypeVariables() {
+            return new TypeList.Generic.Empty();
+        }
+
+        @Override
+        public MethodList<MethodDescription.InDefinedShape> getDeclaredMethods() {
+            return new MethodList.Empty<MethodDescription.InDefinedShape>();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1 && args.length != 2) {
+            throw new IllegalArgumentException("Usage: PortReserveSocketImplGenerator <classes directory> [jar copy]");
+        }
+        File classesDir = new File(args[0]);
+        File jar = new File(classesDir, BootstrapJar.RESOURCE);
+        if (!jar.getParentFile().isDirectory() && !jar.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + jar.getParentFile());
+        }
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        byte[] socketImpl = generateSocketImpl(false);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            write(out, PortReservationAgent.SOCKET_IMPL_CLASSNAME.replace('.', '/') + ".class", socketImpl);
+            for (String className : BOOTSTRAP_CLASSES) {
+                final String path = className.replace('.', '/');
+                File classFile = new File(classesDir, path + ".class");
+                write(out, path + ".class", read(classFile));
+                final String simpleName = classFile.getName().replace(".class", "");
+                File[] nested = classFile.getParentFile().listFiles(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File dir, String name) {
+                        return name.startsWith(simpleName + "$") && name.endsWith(".class");
+                    }
+                });
+                for (File nestedClass : nested) {
+                    write(out, path.substring(0, path.lastIndexOf('/') + 1) + nestedClass.getName(), read(nestedClass));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.write(new File(classesDir, SocketImplDefiner.RESOURCE).toPath(), socketImpl);
+        Files.write(new File(classesDir, SocketImplDefiner.PLATFORM_RESOURCE).toPath(), generateSocketImpl(true));
+        if (args.length == 2) {
+            File copy = new File(args[1]);
+            if (!copy.getParentFile().isDirectory() && !copy.getParentFile().mkdirs()) {
+                throw new IOException("Could not create " + copy.getParentFile());
+            }
+            Files.copy(jar.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param platform {@code true} for the JDK 13+ variant, which delegates to the platform's {@code SocketImpl} and is
+     *                 marked as one itself; {@code false} for JDK 8 to 12, which delegate to {@code SocksSocketImpl}
+     */
+    static byte[] generateSocketImpl(boolean platform) throws NoSuchMethodException {
+        TypeDescription socketImpl = TypeDescription.ForLoadedType.of(SocketImpl.class);
+        MethodCall delegateCall = MethodCall.invokeSelf().onField(PortReservationAgent.DELEGATE_FIELD).withAllArguments();
+        /* the platform default; a plain call as the generated class shares its package */
+        MethodCall platformDefault = platform
+                ? MethodCall.invoke(new MethodDescription.Latent(socketImpl, new MethodDescription.Token(
+                        "createPlatformSocketImpl", Modifier.STATIC, socketImpl.asGenericType(),
+                        new TypeList.Generic.ForLoadedTypes(boolean.class)))).with(true)
+                : MethodCall.construct(new MethodDescription.Latent(SOCKS_SOCKET_IMPL, new MethodDescription.Token(
+                        MethodDescription.CONSTRUCTOR_INTERNAL_NAME, 0,
+                        TypeDescription.Generic.OfNonGenericType.ForLoadedType.of(void.class))));
+
+        /* loaded on JDK 8, or defined on JDK 9+, whatever JDK the build runs on */
+        DynamicType.Builder<SocketImpl> builder = new ByteBuddy(ClassFileVersion.JAVA_V8)
+                .subclass(SocketImpl.class, ConstructorStrategy.Default.IMITATE_SUPER_CLASS_OPENING);
+        if (platform) {
+            builder = builder.implement(PLATFORM_SOCKET_IMPL);
+        }
+        return builder
+                .name(PortReservationAgent.SOCKET_IMPL_CLASSNAME)
+                .defineField(PortReservationAgent.DELEGATE_FIELD, SocketImpl.class, Visibility.PUBLIC)
+                .defineField("reservation", PortReservationInternal.class, Visibility.PRIVATE)
+                .defineField("options", TypeDescription.Generic.Builder.parameterizedType(
+                        Map.class, Object.class, Object.class).build(), Visibility.PRIVATE)
+                .method(not(isDeclaredBy(Object.class)).and(not(isPackagePrivate()))).intercept(delegateCall)
+                /* package private methods JDK 8's ServerSocket calls on its SocketImpl, declared explicitly as the
+                 * JDK running the build may not have them */
+                .defineMethod("setSocket", void.class).withParameters(Socket.class)
+                .intercept(delegateTo(socketImpl, "setSocket", void.class, Socket.class))
+                .defineMethod("getSocket", Socket.class)
+                .intercept(delegateTo(socketImpl, "getSocket", Socket.class))
+                .defineMethod("setServerSocket", void.class).withParameters(ServerSocket.class)
+                .intercept(delegateTo(socketImpl, "setServerSocket", void.class, ServerSocket.class))
+                .defineMethod("getServerSocket", ServerSocket.class)
+                .intercept(delegateTo(socketImpl, "getServerSocket", ServerSocket.class))
+                .defineMethod("reset", void.class).throwing(IOException.class)
+                .intercept(delegateTo(socketImpl, "reset", void.class))
+                .implement(HasDelegate.class).intercept(FieldAccessor.ofBeanProperty())
+                .method(named("bindDelegate")).intercept(MethodCall.invoke(
+                        SocketImpl.class.getDeclaredMethod("bind", InetAddress.class, int.class))
+                        .onField(PortReservationAgent.DELEGATE_FIELD).withAllArguments())
+                .method(named("listenDelegate")).intercept(MethodCall.invoke(
+                        SocketImpl.class.getDeclaredMethod("listen", int.class))
+                        .onField(PortReservationAgent.DELEGATE_FIELD).withAllArguments())
+                /* JDK 9+, described rather than looked up like the package private methods above */
+                .method(named("setOptionDelegate"))
+                .intercept(delegateTo(socketImpl, "setOption", void.class, SocketOption.class, Object.class))
+                .method(named("closeDelegate")).intercept(MethodCall.invoke(
+                        SocketImpl.class.getDeclaredMethod("close")).onField(PortReservationAgent.DELEGATE_FIELD))
+                .constructor(any()).intercept(SuperMethodCall.INSTANCE.andThen(
+                        platformDefault.setsField(named(PortReservationAgent.DELEGATE_FIELD))))
+                /* lets the factory create the platform default directly for sockets it doesn't intercept */
+                .defineMethod(PortReservationAgent.NEW_DELEGATE_METHOD, SocketImpl.class, Visibility.PUBLIC,
+                              Ownership.STATIC).intercept(platformDefault)
+                .method(named("bind")).intercept(to(PortReserveSocketImplMethods.class))
+                .method(named("close")).intercept(to(PortReserveSocketImplMethods.class))
+                .method(named("listen")).intercept(to(PortReserveSocketImplMethods.class))
+                .method(named("setOption").and(takesArguments(int.class, Object.class)))
+                .intercept(to(PortReserveSocketImplMethods.class))
+                .method(named("setOption").and(takesArguments(SocketOption.class, Object.class)))
+                .intercept(to(PortReserveSocketImplMethods.class))
+                .make()
+                .getBytes();
+    }
+
+    /* forward to a package private SocketImpl method that is described rather than looked up */
+    private static MethodCall delegateTo(TypeDescription declaringType, String name, Class<?> returnType,
+                                         Class<?>... parameterTypes) {
+        return MethodCall.invoke(new MethodDescription.Latent(declaringType, new MethodDescription.Token(
+                name, 0, TypeDescription.ForLoadedType.of(returnType).asGenericType(),
+                new TypeList.Generic.ForLoadedTypes(parameterTypes))))
+                .onField(PortReservationAgent.DELEGATE_FIELD).withAllArguments();
+    }
+
+    private static void write(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return BootstrapJar.read(in);
+        } finally {
+            in.close();
+        }
+    }
+}
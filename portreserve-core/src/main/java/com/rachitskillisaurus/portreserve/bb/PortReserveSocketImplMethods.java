@@ -2,109 +2,141 @@ package com.rachitskillisaurus.portreserve.bb;
 
 import com.rachitskillisaurus.portreserve.bootstrap.HasDelegate;
 import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+import com.rachitskillisaurus.portreserve.internal.PortReserveMetrics;
+import com.rachitskillisaurus.portreserve.internal.ReusePort;
 import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
 import com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry;
-import net.bytebuddy.implementation.bind.annotation.Origin;
 import net.bytebuddy.implementation.bind.annotation.This;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
+import java.net.SocketException;
 import java.net.SocketImpl;
+import java.net.SocketOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @author Dmitry Spikhalskiy <dmitry@spikhalskiy.com>
  */
 public class PortReserveSocketImplMethods {
+    /* marks sockets that are bound and no longer record options */
+    private static final Map<Object, Object> BOUND = Collections.emptyMap();
+    /* marks sockets handed a reservation's listening SocketImpl, up to the listen that follows bind */
+    private static final Map<Object, Object> HANDED_OVER =
+            Collections.unmodifiableMap(new HashMap<Object, Object>());
+
     @SuppressWarnings("unused")
-    public static void bind(InetAddress host, int port, @This HasDelegate obj, @Origin Method method) throws IOException {
-        InetSocketAddress bindAddress = new InetSocketAddress(host, port);
-        PortReservationLogger.debug("Attempting to bind a socket to {}", bindAddress);
-        PortReservationInternal internalPortReservation = PortReservationRegistry.INSTANCE.get(bindAddress);
-        if (internalPortReservation != null) {
-            PortReservationLogger.debug("Found port reservation {}", internalPortReservation);
-            if (internalPortReservation.isInTransferMode()) {
-                closeInternal(obj.getDelegate());
-                SocketImpl delegate = internalPortReservation.getSocketImpl();
-                obj.setDelegate(delegate);
-                PortReservationLogger.debug("Delegating bind on {} to {}", bindAddress, delegate);
-                /* socket is already bound so do nothing */
-                return;
+    public static void bind(InetAddress host, int port, @This HasDelegate obj) throws IOException {
+        /* only pay for an address lookup while a transfer is active and something is reserved on this port */
+        if (PortReservationRegistry.INSTANCE.isTransferActive()) {
+            if (PortReservationRegistry.INSTANCE.isReserved(port)) {
+                if (PortReservationLogger.isDebugEnabled()) {
+                    PortReservationLogger.debug("Attempting to bind a socket to {}:{}", host, port);
+                }
+                PortReservationInternal internalPortReservation = PortReservationRegistry.INSTANCE.get(host, port);
+                if (internalPortReservation != null) {
+                    PortReservationLogger.debug("Found port reservation {}", internalPortReservation);
+                    /* only one bind can take a reservation over, the others bind as if nothing was reserved */
+                    SocketImpl delegate = internalPortReservation.isInTransferScope()
+                            ? internalPortReservation.handOver(ReusePort.isEnabled(obj.getDelegate())) : null;
+                    if (delegate != null) {
+                        obj.closeDelegate();
+                        obj.setDelegate(delegate);
+                        if (delegate == internalPortReservation.getSocketImpl()) {
+                            /* closing the socket closes the reservation; a SO_REUSEPORT listener taken over before
+                             * the server socket is simply closed by the socket it was handed to */
+                            obj.setReservation(internalPortReservation);
+                        }
+                        replayOptions(obj, delegate);
+                        PortReserveMetrics.INSTANCE.bindIntercepted();
+                        PortReservationLogger.debug("Delegating bind on port {} to {}", port, delegate);
+                        /* socket is already bound so do nothing */
+                        return;
+                    }
+                }
             }
+            PortReserveMetrics.INSTANCE.bindPassedThrough();
         }
 
-        try {
-            method.setAccessible(true);
-            method.invoke(obj.getDelegate(), host, port);
-        } catch (InvocationTargetException e) {
-            if (e.getCause() instanceof IOException) {
-                throw (IOException) e.getCause();
-            } else {
-                throw new RuntimeException(e);
-            }
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
+        obj.setOptions(BOUND);
+        obj.bindDelegate(host, port);
+    }
+
+    @SuppressWarnings("unused")
+    public static void listen(int backlog, @This HasDelegate obj) throws IOException {
+        if (obj.getOptions() == HANDED_OVER) {
+            /* listening again would replace the backlog the reservation was made with by the server's */
+            obj.setOptions(BOUND);
+            return;
         }
+        obj.listenDelegate(backlog);
     }
 
     @SuppressWarnings("unused")
-    public static void close(@This HasDelegate obj, @Origin Method method) throws IOException {
-        SocketImpl delegate = obj.getDelegate();
+    public static void setOption(int optID, Object value, @This HasDelegate obj) throws SocketException {
+        obj.getDelegate().setOption(optID, value);
+        record(obj, optID, value);
+    }
 
-        ServerSocket serverSocket;
-        try {
-            Field socketField = SocketImpl.class.getDeclaredField("serverSocket");
-            socketField.setAccessible(true);
-            serverSocket = (ServerSocket) socketField.get(delegate);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * JDK 9+ {@code ServerSocket.setOption(SocketOption, Object)}, which doesn't go through the option id overload
+     */
+    @SuppressWarnings("unused")
+    public static void setOption(SocketOption<?> name, Object value, @This HasDelegate obj) throws IOException {
+        obj.setOptionDelegate(name, value);
+        record(obj, name, value);
+    }
 
-        InetSocketAddress socketAddress = (InetSocketAddress) serverSocket.getLocalSocketAddress();
-        //it's possible to get null here if for example we call close in ServerSocket after unsuccessful bind() (port already in use)
-        if (socketAddress != null) {
-            PortReservationInternal portReservation = PortReservationRegistry.INSTANCE.get(socketAddress);
-            if (portReservation != null) {
-                PortReservationLogger.debug("Found port reservation {}, close", portReservation);
-                portReservation.close();
-                return;
+    private static void record(HasDelegate obj, Object option, Object value) {
+        Map<Object, Object> options = obj.getOptions();
+        /* only worth remembering while there is a reservation bind could swap in */
+        if (options != BOUND && options != HANDED_OVER && PortReservationRegistry.INSTANCE.size() != 0) {
+            if (options == null) {
+                options = new LinkedHashMap<Object, Object>();
+                obj.setOptions(options);
             }
+            options.put(option, value);
         }
+    }
 
-        try {
-            method.setAccessible(true);
-            method.invoke(delegate);
-        } catch (InvocationTargetException e) {
-            if (e.getCause() instanceof IOException) {
-                throw (IOException)e.getCause();
-            } else {
-                throw new RuntimeException(e);
+    /**
+     * Apply the options the owner set on the discarded delegate before bind to the reserved {@code SocketImpl}
+     */
+    private static void replayOptions(HasDelegate obj, SocketImpl delegate) {
+        Map<Object, Object> options = obj.getOptions();
+        obj.setOptions(HANDED_OVER);
+        if (options == null || options == BOUND) {
+            return;
+        }
+        for (Map.Entry<Object, Object> option : options.entrySet()) {
+            try {
+                if (option.getKey() instanceof Integer) {
+                    delegate.setOption((Integer) option.getKey(), option.getValue());
+                } else {
+                    /* obj's delegate is the reserved SocketImpl already */
+                    obj.setOptionDelegate((SocketOption<?>) option.getKey(), option.getValue());
+                }
+            } catch (IOException e) {
+                PortReservationLogger.debug("Could not apply socket option {} to the reserved socket", option.getKey());
+            } catch (UnsupportedOperationException e) {
+                PortReservationLogger.debug("Could not apply socket option {} to the reserved socket", option.getKey());
             }
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
         }
     }
 
-    private static void closeInternal(SocketImpl socketToClose) {
-        try {
-            Method closeMethod = SocketImpl.class.getDeclaredMethod("close");
-            closeMethod.setAccessible(true);
-            closeMethod.invoke(socketToClose);
-        } catch (NoSuchMethodException e) {
-            PortReservationLogger.error("Can't get close() method of " + socketToClose, e);
-            throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            PortReservationLogger.error("Can't call close() method of " + socketToClose, e);
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            PortReservationLogger.error("Can't call close() method of " + socketToClose, e);
-            throw new RuntimeException(e);
+    @SuppressWarnings("unused")
+    public static void close(@This HasDelegate obj) throws IOException {
+        PortReservationInternal portReservation = obj.getReservation();
+        if (portReservation != null) {
+            PortReservationLogger.debug("Found port reservation {}, close", portReservation);
+            obj.setReservation(null);
+            portReservation.ownerClosed();
+            return;
         }
+
+        obj.closeDelegate();
     }
 }
@@ -1,6 +1,10 @@
 package com.rachitskillisaurus.portreserve.bootstrap;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketOption;
 import java.net.SocketImpl;
+import java.util.Map;
 
 /**
  * @author Dmitry Spikhalskiy <dmitry@spikhalskiy.com>
@@ -8,4 +12,37 @@ import java.net.SocketImpl;
 public interface HasDelegate {
     SocketImpl getDelegate();
     void setDelegate(SocketImpl delegate);
+
+    /**
+     * @return reservation whose {@code SocketImpl} was transferred to this socket, or {@code null}
+     */
+    PortReservationInternal getReservation();
+    void setReservation(PortReservationInternal reservation);
+
+    /**
+     * @return values passed to {@code setOption} before bind by option id or {@code SocketOption}, replayed if bind
+     * swaps in a reservation's {@code SocketImpl}; {@code null} if none were recorded
+     */
+    Map<Object, Object> getOptions();
+    void setOptions(Map<Object, Object> options);
+
+    /**
+     * Invoke {@code bind} directly on the current delegate
+     */
+    void bindDelegate(InetAddress host, int port) throws IOException;
+
+    /**
+     * Invoke {@code listen} directly on the current delegate
+     */
+    void listenDelegate(int backlog) throws IOException;
+
+    /**
+     * Invoke the JDK 9+ {@code setOption(SocketOption, Object)} directly on the current delegate
+     */
+    void setOptionDelegate(SocketOption<?> name, Object value) throws IOException;
+
+    /**
+     * Invoke {@code close} directly on the current delegate
+     */
+    void closeDelegate() throws IOException;
 }
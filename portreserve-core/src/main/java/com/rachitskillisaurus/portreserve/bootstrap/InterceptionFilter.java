@@ -0,0 +1,86 @@
+package com.rachitskillisaurus.portreserve.bootstrap;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * Which reservations binds may take over.  Immutable; a reservation is classified once, when it is registered.
+ *
+ * @see com.rachitskillisaurus.portreserve.InterceptionPolicy
+ */
+public final class InterceptionFilter {
+    public static final InterceptionFilter ALL = new InterceptionFilter(new int[0], new InetAddress[0]);
+
+    /* inclusive [min, max] pairs; empty matches every port */
+    private final int[] portRanges;
+    /* empty matches every address */
+    private final InetAddress[] addresses;
+
+    private InterceptionFilter(int[] portRanges, InetAddress[] addresses) {
+        this.portRanges = portRanges;
+        this.addresses = addresses;
+    }
+
+    /**
+     * @return a filter that additionally matches ports in {@code [minPort, maxPort]}
+     */
+    public InterceptionFilter withPorts(int minPort, int maxPort) {
+        if (minPort < 0 || maxPort > 65535 || minPort > maxPort) {
+            throw new IllegalArgumentException("Invalid port range " + minPort + "-" + maxPort);
+        }
+        int[] ranges = Arrays.copyOf(portRanges, portRanges.length + 2);
+        ranges[portRanges.length] = minPort;
+        ranges[portRanges.length + 1] = maxPort;
+        return new InterceptionFilter(ranges, addresses);
+    }
+
+    /**
+     * @return a filter that additionally matches reservations bound to {@code address}
+     */
+    public InterceptionFilter withAddress(InetAddress address) {
+        if (address == null) {
+            throw new IllegalArgumentException("address");
+        }
+        InetAddress[] updated = Arrays.copyOf(addresses, addresses.length + 1);
+        updated[addresses.length] = address;
+        return new InterceptionFilter(portRanges, updated);
+    }
+
+    public boolean matches(InetAddress address, int port) {
+        return matchesPort(port) && matchesAddress(address);
+    }
+
+    private boolean matchesPort(int port) {
+        if (portRanges.length == 0) {
+            return true;
+        }
+        for (int i = 0; i < portRanges.length; i += 2) {
+            if (port >= portRanges[i] && port <= portRanges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAddress(InetAddress address) {
+        if (addresses.length == 0) {
+            return true;
+        }
+        for (InetAddress candidate : addresses) {
+            if (candidate.equals(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ports = new StringBuilder();
+        for (int i = 0; i < portRanges.length; i += 2) {
+            ports.append(ports.length() == 0 ? "" : ",").append(portRanges[i]).append('-').append(portRanges[i + 1]);
+        }
+        return "InterceptionFilter{ports=" + (ports.length() == 0 ? "*" : ports) + ", addresses="
+               + (addresses.length == 0 ? "*" : Arrays.toString(addresses)) + '}';
+    }
+}
@@ -1,20 +1,59 @@
 package com.rachitskillisaurus.portreserve.bootstrap;
 
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+import com.rachitskillisaurus.portreserve.internal.PortReserveMetrics;
+
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.SocketImpl;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * The bootstrap side of a reservation, shared by the public API and bind interception.
+ * <p/>
+ * A reservation moves through {@link State}s with atomic transitions only: {@code RESERVED} once its socket is bound,
+ * {@code TRANSFERRING} while a transfer callback runs, {@code TRANSFERRED} once a bind took it over and
+ * {@code CLOSED} for good.  Exactly one thread wins each transition, so concurrent binds can't both take over a
+ * reservation, and a close racing a transfer or bind either happens first, making the bind fall through to the
+ * platform, or after, closing the socket the bind took over.  Whoever moves a reservation out of {@code TRANSFERRING}
+ * settles its transfer bookkeeping.
+ * <p/>
+ * The address and port are written before the volatile state write that makes a reservation {@code RESERVED} and are
+ * safely published by it, and by the registry a reservation is published through.
+ *
  * @author Dmitry Spikhalskiy <dmitry@spikhalskiy.com>
  */
 public class PortReservationInternal implements Closeable {
-    private final AtomicBoolean transferMode = new AtomicBoolean();
-    private ServerSocket serverSocket;
-    private SocketImpl socketImpl;
+    public enum State {
+        RESERVED, TRANSFERRING, TRANSFERRED, CLOSED
+    }
+
+    /* closed until the socket is bound, and again whenever a recycling reservation waits to be bound anew */
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+    private volatile ServerSocket serverSocket;
+    /* further SO_REUSEPORT listeners on the same address, handed over one per joining bind ahead of serverSocket */
+    private volatile ServerSocket[] reusePortListeners;
+    /* their SocketImpls where ServerSockets are intercepted through a SocketImplFactory, else null */
+    private volatile SocketImpl[] reusePortSocketImpls;
+    private final AtomicInteger listenersHandedOver = new AtomicInteger();
+    private volatile DatagramSocket datagramSocket;
+    private volatile SocketImpl socketImpl;
+    /* captured once the socket is bound, registry lookups and getSocketAddress() don't allocate */
+    private InetAddress inetAddress;
+    private int port;
+    private InetSocketAddress socketAddress;
+    /* written on entering transfer mode, read by whichever thread leaves it */
+    private volatile long transferStartNanos;
+    private volatile TransferScope transferScope;
+    /* classified by the registry before the reservation is published */
+    private boolean interceptable;
+    /* non null while the reservation should bind its port again once the server it was transferred to closes it */
+    private volatile ReservationRecycler recycler;
 
     /**
      * Set underlying server socket SocketImpl
@@ -26,12 +65,135 @@ public class PortReservationInternal implements Closeable {
     }
 
     /**
-     * Set underlying ServerSocket
+     * Set underlying ServerSocket, which must already be bound
      *
      * @param serverSocket server socket
      */
     public void setServerSocket(ServerSocket serverSocket) {
+        this.inetAddress = serverSocket.getInetAddress();
+        this.port = serverSocket.getLocalPort();
+        this.socketAddress = new InetSocketAddress(inetAddress, port);
         this.serverSocket = serverSocket;
+        bound();
+    }
+
+    /**
+     * Set the {@code SO_REUSEPORT} listeners bound on the same address as the server socket in addition to it
+     *
+     * @param listeners   bound listeners
+     * @param socketImpls their {@code SocketImpl}s in the same order, {@code null} if binds release listeners rather
+     *                    than take them over
+     */
+    public void setReusePortListeners(ServerSocket[] listeners, SocketImpl[] socketImpls) {
+        /* set right after the server socket, before the reservation is registered */
+        this.reusePortSocketImpls = socketImpls;
+        this.reusePortListeners = listeners;
+    }
+
+    /**
+     * @return every listening socket of this reservation, the server socket first
+     */
+    public ServerSocket[] getServerSockets() {
+        if (serverSocket == null) {
+            return new ServerSocket[0];
+        }
+        int extra = reusePortListeners == null ? 0 : reusePortListeners.length;
+        ServerSocket[] sockets = new ServerSocket[extra + 1];
+        sockets[0] = serverSocket;
+        if (extra != 0) {
+            System.arraycopy(reusePortListeners, 0, sockets, 1, extra);
+        }
+        return sockets;
+    }
+
+    /**
+     * @return {@code true} if this reservation holds more than one {@code SO_REUSEPORT} listener
+     */
+    public boolean hasReusePortListeners() {
+        return reusePortListeners != null;
+    }
+
+    /**
+     * Hand the reserved socket over to a bind that swaps in its {@code SocketImpl}.  Binds enabling
+     * {@code SO_REUSEPORT} take over one listener each, the server socket last, which takes the reservation over; any
+     * other bind takes the reservation over right away and the listeners still held are closed.
+     *
+     * @param reusePort {@code true} if the bind enables {@code SO_REUSEPORT}
+     * @return the {@code SocketImpl} now owned by the bind, {@code null} if the bind lost the reservation to another
+     * bind or a close
+     * @throws IOException if a listener can not be closed
+     */
+    public SocketImpl handOver(boolean reusePort) throws IOException {
+        ServerSocket[] listeners = reusePortListeners;
+        if (listeners != null && reusePort) {
+            if (state.get() != State.TRANSFERRING) {
+                return null;
+            }
+            int released = listenersHandedOver.getAndIncrement();
+            if (released < listeners.length) {
+                return reusePortSocketImpls[listeners.length - 1 - released];
+            }
+            if (released != listeners.length) {
+                return null;
+            }
+        }
+        if (!takeOver()) {
+            return null;
+        }
+        closeHeldListeners();
+        return socketImpl;
+    }
+
+    /* listeners are handed over from the end, those are owned by the socket they were handed to */
+    private void closeHeldListeners() throws IOException {
+        ServerSocket[] listeners = reusePortListeners;
+        if (listeners != null) {
+            int held = listeners.length - Math.min(listenersHandedOver.get(), listeners.length);
+            for (int i = 0; i < held; i++) {
+                listeners[i].close();
+            }
+        }
+    }
+
+    /**
+     * Set underlying DatagramSocket of a UDP reservation, which must already be bound
+     *
+     * @param datagramSocket datagram socket
+     */
+    public void setDatagramSocket(DatagramSocket datagramSocket) {
+        this.inetAddress = datagramSocket.getLocalAddress();
+        this.port = datagramSocket.getLocalPort();
+        this.socketAddress = new InetSocketAddress(inetAddress, port);
+        this.datagramSocket = datagramSocket;
+        bound();
+    }
+
+    private void bound() {
+        listenersHandedOver.set(0);
+        if (!state.compareAndSet(State.CLOSED, State.RESERVED)) {
+            throw new IllegalStateException("Port reservation is already bound");
+        }
+    }
+
+    /**
+     * @return the datagram socket of a UDP reservation, {@code null} for TCP reservations
+     */
+    public DatagramSocket getDatagramSocket() {
+        return datagramSocket;
+    }
+
+    /**
+     * @return {@code true} for UDP reservations
+     */
+    public boolean isDatagram() {
+        return datagramSocket != null;
+    }
+
+    /**
+     * @return registry this reservation is registered in, TCP and UDP ports are reserved independently
+     */
+    public PortReservationRegistry getRegistry() {
+        return isDatagram() ? PortReservationRegistry.DATAGRAM : PortReservationRegistry.INSTANCE;
     }
 
     /**
@@ -55,20 +217,161 @@ public class PortReservationInternal implements Closeable {
      * @return an {@link java.net.InetSocketAddress} for this reservation
      */
     public InetSocketAddress getSocketAddress() {
-        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        return socketAddress;
+    }
+
+    /**
+     * @return address the underlying server socket was bound to
+     */
+    public InetAddress getInetAddress() {
+        return inetAddress;
     }
 
     /**
-     * Returns {@code true} if the current thread or any of its descendants are currently executing a transfer method
+     * @return port the underlying server socket was bound to
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns {@code true} if this reservation is in transfer mode on any thread
      *
-     * @return {@code true} if the current thread or any of its descendants are currently executing a transfer method
+     * @return {@code true} if this reservation is in transfer mode on any thread
      */
     public boolean isInTransferMode() {
-        return transferMode.get();
+        return state.get() == State.TRANSFERRING;
+    }
+
+    /**
+     * @return current lifecycle state
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Returns {@code true} if the current thread is executing within the scope of this reservation's transfer and the
+     * reservation is interceptable, i.e. a bind on this thread may take over the reserved socket
+     *
+     * @return {@code true} if the current thread is executing within the scope of this reservation's transfer
+     */
+    public boolean isInTransferScope() {
+        if (!interceptable || state.get() != State.TRANSFERRING) {
+            return false;
+        }
+        TransferScope scope = transferScope;
+        return scope != null && scope.isActive();
+    }
+
+    /**
+     * Returns {@code true} if binds may take over this reservation under the interception filter it was registered
+     * under
+     *
+     * @return {@code true} if binds may take over this reservation
+     */
+    public boolean isInterceptable() {
+        return interceptable;
+    }
+
+    void setInterceptable(boolean interceptable) {
+        this.interceptable = interceptable;
+    }
+
+    /**
+     * Claim this reservation for a bind, moving it from {@code TRANSFERRING} to {@code TRANSFERRED}.  Only one bind
+     * can win; the others, and binds racing a close, must fall through to the platform bind.
+     *
+     * @return {@code true} if the calling bind now owns the reservation
+     */
+    public boolean takeOver() {
+        if (state.compareAndSet(State.TRANSFERRING, State.TRANSFERRED)) {
+            transferLeft();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if a bind took over the reserved socket, closing the reservation then closes that server
+     */
+    public boolean isTransferred() {
+        return state.get() == State.TRANSFERRED;
+    }
+
+    /**
+     * Bind the port again through {@code recycler} whenever the server this reservation was transferred to closes it
+     *
+     * @param recycler recycler, or {@code null} to close the reservation for good when its owner closes it
+     */
+    public void setRecycler(ReservationRecycler recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * @return {@code true} if the port is bound again once the server it was transferred to closes it
+     */
+    public boolean isRecycling() {
+        return recycler != null;
+    }
+
+    /**
+     * Called once the server this reservation was transferred to closed its socket.  A recycling reservation binds the
+     * same address again and can be transferred anew, any other reservation is closed for good.
+     *
+     * @throws IOException if the reserved socket can not be closed
+     */
+    public void ownerClosed() throws IOException {
+        /* a ServerSocket owner was using the reserved socket itself, a channel's was closed on transfer already */
+        close();
+        ReservationRecycler current = recycler;
+        if (current != null) {
+            current.recycle(this);
+        }
+    }
+
+    /**
+     * Enter transfer mode for binds made within {@code scope}
+     *
+     * @param scope scope of the transfer
+     * @throws IllegalStateException if this reservation is not {@code RESERVED}
+     */
+    public void startTransfer(TransferScope scope) {
+        if (!state.compareAndSet(State.RESERVED, State.TRANSFERRING)) {
+            State current = state.get();
+            throw new IllegalStateException(current == State.TRANSFERRING
+                    ? "Port reservation is already in transfer mode"
+                    : "Port reservation is " + current.name().toLowerCase());
+        }
+        transferStartNanos = System.nanoTime();
+        getRegistry().transferStarted(this);
+        /* binds only match once the scope is visible, after the bookkeeping they may settle */
+        transferScope = scope;
     }
 
-    public AtomicBoolean getTransferMode() {
-        return transferMode;
+    /**
+     * Leave transfer mode, does nothing if a bind or close already moved this reservation out of it
+     */
+    public void stopTransfer() {
+        transferScope = null;
+        if (reusePortListeners != null && listenersHandedOver.get() > 0) {
+            /* the server opened fewer listeners than reserved; the rest would take a share of its connections */
+            if (takeOver()) {
+                try {
+                    close();
+                } catch (IOException e) {
+                    PortReservationLogger.error("Failed to close remaining listeners of {}", this);
+                }
+            }
+        } else if (state.compareAndSet(State.TRANSFERRING, State.RESERVED)) {
+            transferLeft();
+        }
+    }
+
+    /* settled exactly once per transfer, by the thread that moved the reservation out of TRANSFERRING */
+    private void transferLeft() {
+        PortReserveMetrics.INSTANCE.transferCompleted(System.nanoTime() - transferStartNanos);
+        getRegistry().transferStopped(this);
     }
 
     /**
@@ -79,21 +382,53 @@ public class PortReservationInternal implements Closeable {
     }
 
     /**
-     * Close this port reservation by closing the underlying server socket
+     * @return {@code true} if this reservation is closed (or was never bound), or its socket was closed directly
+     */
+    public boolean isClosed() {
+        if (state.get() == State.CLOSED) {
+            return true;
+        }
+        DatagramSocket datagram = datagramSocket;
+        if (datagram != null) {
+            return datagram.isClosed();
+        }
+        ServerSocket server = serverSocket;
+        return server == null || server.isClosed();
+    }
+
+    /**
+     * Close this port reservation by closing the underlying socket.  Idempotent; only the first call after the
+     * reservation was bound closes anything.
      *
-     * @throws IOException if underlying server socket can not be closed
+     * @throws IOException if underlying socket can not be closed
      */
     @Override
     public void close() throws IOException {
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            PortReservationRegistry.INSTANCE.removePortReservationFromRegistry(this);
+        State previous = state.getAndSet(State.CLOSED);
+        if (previous == State.CLOSED) {
+            return;
+        }
+        if (previous == State.TRANSFERRING) {
+            transferLeft();
+        }
+        getRegistry().removePortReservationFromRegistry(this);
+        PortReserveMetrics.INSTANCE.reservationClosed();
+        DatagramSocket datagram = datagramSocket;
+        if (datagram != null) {
+            datagram.close();
+        } else {
+            closeHeldListeners();
             serverSocket.close();
         }
     }
 
+    private Object socket() {
+        return datagramSocket != null ? datagramSocket : serverSocket;
+    }
+
     @Override
     public String toString() {
-        return "PortReservation{" + "serverSocket=" + serverSocket + '}';
+        return "PortReservation{" + (isDatagram() ? "datagramSocket=" : "serverSocket=") + socket() + '}';
     }
 
     @Override
@@ -103,13 +438,13 @@ public class PortReservationInternal implements Closeable {
 
         PortReservationInternal that = (PortReservationInternal) o;
 
-        if (serverSocket != null ? ! serverSocket.equals(that.serverSocket) : that.serverSocket != null) return false;
+        if (socket() != null ? ! socket().equals(that.socket()) : that.socket() != null) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        return serverSocket != null ? serverSocket.hashCode() : 0;
+        return socket() != null ? socket().hashCode() : 0;
     }
 }
@@ -2,34 +2,210 @@ package com.rachitskillisaurus.portreserve.bootstrap;
 
 import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
 
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author Dmitry Spikhalskiy <dmitry@spikhalskiy.com>
  */
 public enum PortReservationRegistry {
-    INSTANCE;
+    /* TCP reservations */
+    INSTANCE,
+    /* UDP reservations, their ports are independent of TCP ports */
+    DATAGRAM;
 
-    private Map<InetSocketAddress, PortReservationInternal> reservationRegistry = new ConcurrentHashMap<InetSocketAddress, PortReservationInternal>();
+    /* reservations indexed by port; each slot is a small copy-on-write array of the reservations on that port */
+    private final AtomicReferenceArray<PortReservationInternal[]> reservations =
+            new AtomicReferenceArray<PortReservationInternal[]>(65536);
+    private final AtomicInteger size = new AtomicInteger();
+    /* number of reservations currently in transfer mode, lets bind interception skip lookups entirely when zero */
+    private final AtomicInteger activeTransfers = new AtomicInteger();
+    /* incremented on every transfer start and stop */
+    private final AtomicInteger transferEpoch = new AtomicInteger();
+    /* reservations matching the interception filter they were registered under, and those of them in transfer mode */
+    private final AtomicInteger interceptable = new AtomicInteger();
+    private final AtomicInteger interceptableTransfers = new AtomicInteger();
+    private volatile InterceptionFilter interceptionFilter = InterceptionFilter.ALL;
 
     public void removePortReservationFromRegistry(PortReservationInternal portReservation) {
-        PortReservationInternal oldPortReservation = reservationRegistry.remove(portReservation.getSocketAddress());
-        if (oldPortReservation != portReservation) {
-            PortReservationLogger.error("We removed different port reservation from registry", portReservation);
+        int port = portReservation.getPort();
+        PortReservationInternal[] current;
+        PortReservationInternal[] updated;
+        do {
+            current = reservations.get(port);
+            int index = current == null ? -1 : indexOf(current, portReservation);
+            if (index < 0) {
+                PortReservationLogger.error("Port reservation {} was not found in registry", portReservation);
+                return;
+            }
+            if (current.length == 1) {
+                updated = null;
+            } else {
+                updated = new PortReservationInternal[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, updated.length - index);
+            }
+        } while (!reservations.compareAndSet(port, current, updated));
+        size.decrementAndGet();
+        if (portReservation.isInterceptable()) {
+            interceptable.decrementAndGet();
         }
     }
 
+    /**
+     * Allocation free check for whether any reservation is registered on {@code port}
+     *
+     * @param port port to check
+     * @return {@code true} if at least one reservation is registered on {@code port}
+     */
+    public boolean isReserved(int port) {
+        return port > 0 && port < 65536 && reservations.get(port) != null;
+    }
+
+    void transferStarted(PortReservationInternal portReservation) {
+        activeTransfers.incrementAndGet();
+        if (portReservation.isInterceptable()) {
+            interceptableTransfers.incrementAndGet();
+        }
+        transferEpoch.incrementAndGet();
+    }
+
+    void transferStopped(PortReservationInternal portReservation) {
+        activeTransfers.decrementAndGet();
+        if (portReservation.isInterceptable()) {
+            interceptableTransfers.decrementAndGet();
+        }
+        transferEpoch.incrementAndGet();
+    }
+
+    /**
+     * Set the filter reservations registered from now on are classified by
+     *
+     * @param interceptionFilter reservations binds may take over
+     */
+    public void setInterceptionFilter(InterceptionFilter interceptionFilter) {
+        this.interceptionFilter = interceptionFilter;
+    }
+
+    public InterceptionFilter getInterceptionFilter() {
+        return interceptionFilter;
+    }
+
+    /**
+     * @return {@code true} if at least one registered reservation may be taken over by a bind
+     */
+    public boolean hasInterceptableReservations() {
+        return interceptable.get() != 0;
+    }
+
+    /**
+     * @return {@code true} if at least one reservation that may be taken over by a bind is in transfer mode
+     */
+    public boolean isInterceptableTransferActive() {
+        return interceptableTransfers.get() != 0;
+    }
+
+    /**
+     * Cheap check performed by bind interception before any lookup; when no reservation is in transfer mode no bind
+     * can be transferred, so interception falls straight through to the original {@code SocketImpl}
+     *
+     * @return {@code true} if at least one reservation is in transfer mode
+     */
+    public boolean isTransferActive() {
+        return activeTransfers.get() != 0;
+    }
+
+    /**
+     * @return number of reservations currently in transfer mode
+     */
+    public int getActiveTransfers() {
+        return activeTransfers.get();
+    }
+
+    /**
+     * @return counter incremented each time any reservation enters or leaves transfer mode
+     */
+    public int getTransferEpoch() {
+        return transferEpoch.get();
+    }
+
+    /**
+     * Find the reservation a bind on {@code host:port} should be served by, without allocating.  A reservation on
+     * exactly {@code host} wins; otherwise a reservation on the wildcard address matches any {@code host} it covers
+     * (the IPv6 wildcard covers IPv4 addresses as well).
+     *
+     * @param host address being bound
+     * @param port port being bound
+     * @return matching reservation or {@code null}
+     */
+    public PortReservationInternal get(InetAddress host, int port) {
+        if (host == null || port <= 0 || port >= 65536) {
+            return null;
+        }
+        PortReservationInternal[] candidates = reservations.get(port);
+        if (candidates == null) {
+            return null;
+        }
+        PortReservationInternal wildcard = null;
+        for (PortReservationInternal candidate : candidates) {
+            InetAddress address = candidate.getInetAddress();
+            if (address.equals(host)) {
+                return candidate;
+            }
+            if (wildcard == null && address.isAnyLocalAddress()
+                    && (address instanceof Inet6Address || host instanceof Inet4Address)) {
+                wildcard = candidate;
+            }
+        }
+        return wildcard;
+    }
+
     public PortReservationInternal get(InetSocketAddress bindAddress) {
-        return reservationRegistry.get(bindAddress);
+        return get(bindAddress.getAddress(), bindAddress.getPort());
     }
 
-    public void put(InetSocketAddress address, PortReservationInternal ipr) {
-        reservationRegistry.put(address, ipr);
+    /**
+     * Register a bound reservation under the address and port it is bound to
+     *
+     * @param ipr bound reservation
+     */
+    public void put(PortReservationInternal ipr) {
+        int port = ipr.getPort();
+        ipr.setInterceptable(interceptionFilter.matches(ipr.getInetAddress(), port));
+        PortReservationInternal[] current;
+        PortReservationInternal[] updated;
+        do {
+            current = reservations.get(port);
+            if (current == null) {
+                updated = new PortReservationInternal[] {ipr};
+            } else if (indexOf(current, ipr) >= 0) {
+                return;
+            } else {
+                updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = ipr;
+            }
+        } while (!reservations.compareAndSet(port, current, updated));
+        size.incrementAndGet();
+        if (ipr.isInterceptable()) {
+            interceptable.incrementAndGet();
+        }
     }
 
     public int size() {
-        return reservationRegistry.size();
+        return size.get();
+    }
+
+    private static int indexOf(PortReservationInternal[] entries, PortReservationInternal ipr) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == ipr) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
@@ -0,0 +1,14 @@
+package com.rachitskillisaurus.portreserve.bootstrap;
+
+/**
+ * Binds a new socket for a recycling reservation once the server it was transferred to closed its socket, so the next
+ * transfer can take over the same port
+ */
+public interface ReservationRecycler {
+    /**
+     * Bind {@code reservation} again on the address it held; failures leave the reservation closed
+     *
+     * @param reservation reservation whose owner closed its socket, already closed and out of its registry
+     */
+    void recycle(PortReservationInternal reservation);
+}
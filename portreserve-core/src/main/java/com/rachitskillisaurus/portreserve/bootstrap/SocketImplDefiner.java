@@ -0,0 +1,53 @@
+package com.rachitskillisaurus.portreserve.bootstrap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.net.SocketImpl;
+
+/**
+ * Defines the intercepting {@code SocketImpl} in {@code java.net} on JDK 9+, where the bootstrap jar's copy of it is
+ * never loaded as the package belongs to {@code java.base}.  The class is defined through a lookup on
+ * {@link SocketImpl}, which only works once {@code java.base} opens {@code java.net} to the bootstrap jar's unnamed
+ * module and reads it, see {@link com.rachitskillisaurus.portreserve.bb.PortReservationAgent}.
+ * <p/>
+ * JDK 13+ gets a variant delegating to the platform's {@code NioSocketImpl} and marked as a platform {@code SocketImpl},
+ * so {@code ServerSocket.accept} keeps using the platform accept path.  Both class files are library resources outside
+ * of {@code java/net}, next to the bootstrap jar.
+ */
+public final class SocketImplDefiner {
+    public static final String RESOURCE = "META-INF/portreserve/PortReserveSocketImpl.bytes";
+    public static final String PLATFORM_RESOURCE = "META-INF/portreserve/PortReserveSocketImpl-platform.bytes";
+    public static final String PLATFORM_SOCKET_IMPL_CLASSNAME = "sun.net.PlatformSocketImpl";
+
+    private SocketImplDefiner() {
+    }
+
+    /**
+     * @return resource holding the class file of the intercepting {@code SocketImpl} for the running JDK
+     */
+    public static String resource() {
+        try {
+            Class.forName(PLATFORM_SOCKET_IMPL_CLASSNAME, false, null);
+            return PLATFORM_RESOURCE;
+        } catch (ClassNotFoundException e) {
+            return RESOURCE;
+        }
+    }
+
+    /**
+     * Define the intercepting {@code SocketImpl} in {@code java.net}
+     *
+     * @param bytes class file read from {@link #resource()}
+     * @throws Exception if the class can not be defined
+     */
+    public static void define(byte[] bytes) throws Exception {
+        /* JDK 9 API, looked up reflectively like every other one */
+        Object lookup = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class)
+                .invoke(null, SocketImpl.class, MethodHandles.lookup());
+        try {
+            MethodHandles.Lookup.class.getMethod("defineClass", byte[].class).invoke(lookup, bytes);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.rachitskillisaurus.portreserve.bootstrap;
+
+/**
+ * The execution context a transfer belongs to.  A scope is current on the thread running a transfer callback and is
+ * inherited by threads it starts (platform or virtual); executors that don't start threads for each task propagate it
+ * with {@link com.rachitskillisaurus.portreserve.TransferContext}.  Intercepted binds only take over a reservation
+ * whose scope is current on the binding thread, so concurrent transfers on different threads can't steal each other's
+ * sockets.
+ * <p/>
+ * Scopes nest: a transfer started inside another transfer's callback can still bind the outer transfer's reservations.
+ */
+public final class TransferScope {
+    private static final InheritableThreadLocal<TransferScope> CURRENT = new InheritableThreadLocal<TransferScope>();
+
+    private final TransferScope parent;
+
+    public TransferScope(TransferScope parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return a new scope nested in the scope current on this thread
+     */
+    public static TransferScope open() {
+        return new TransferScope(CURRENT.get());
+    }
+
+    /**
+     * @return scope current on this thread, or {@code null}
+     */
+    public static TransferScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Make this scope current on the calling thread
+     *
+     * @return previously current scope, to be passed to {@link #restore(TransferScope)}
+     */
+    public TransferScope enter() {
+        TransferScope previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Make {@code previous} current again on the calling thread
+     *
+     * @param previous value returned by {@link #enter()}
+     */
+    public static void restore(TransferScope previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return {@code true} if this scope or a scope nested in it is current on the calling thread
+     */
+    public boolean isActive() {
+        for (TransferScope scope = CURRENT.get(); scope != null; scope = scope.parent) {
+            if (scope == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link LogSink} that queues records for a daemon thread writing to {@code System.err}.  The writer thread is started
+ * on the first record; when the queue is full records are dropped and counted rather than blocking the caller.
+ */
+public class AsyncLogWriter implements LogSink, Runnable {
+    private static final int CAPACITY = 1024;
+
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(CAPACITY);
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Override
+    public void log(PortReservationLogger.Level level, String message, Throwable throwable) {
+        String line = "[portreserve] " + level + " " + message;
+        if (throwable != null) {
+            StringWriter stackTrace = new StringWriter();
+            throwable.printStackTrace(new PrintWriter(stackTrace));
+            line = line + System.getProperty("line.separator") + stackTrace;
+        }
+        if (!queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread writer = new Thread(this, "portreserve-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * @return number of records dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                String line = queue.take();
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    System.err.println("[portreserve] dropped " + lost + " log records");
+                }
+                System.err.println(line);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
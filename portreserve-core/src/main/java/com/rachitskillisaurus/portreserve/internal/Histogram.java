@@ -0,0 +1,99 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values in power of two buckets.  Buckets and maximum are striped by thread the same way as
+ * {@link StripedCounter}, so recording from different threads rarely touches the same cache line; reads merge all
+ * stripes.  Percentiles are reported as the upper bound of the bucket they fall in, so they are accurate to within a
+ * factor of two.
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+    /* buckets, then the stripe's maximum, padded so neighbouring stripes don't share a line */
+    private static final int MAX = BUCKETS;
+    private static final int ROW = BUCKETS + StripedCounter.PADDING;
+
+    private final AtomicLongArray cells = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+    private final StripedCounter sum = new StripedCounter();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int row = StripedCounter.stripe() * ROW;
+        cells.incrementAndGet(row + bucket(value));
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = cells.get(row + MAX)) && !cells.compareAndSet(row + MAX, currentMax, value)) {
+            /* retry */
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += getBucket(i);
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        long max = 0;
+        for (int row = 0; row < cells.length(); row += ROW) {
+            max = Math.max(max, cells.get(row + MAX));
+        }
+        return max;
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * @param quantile quantile in {@code [0, 1]}
+     * @return upper bound of the bucket holding {@code quantile}, never more than {@link #getMax()}
+     */
+    public long getPercentile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = getBucket(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private long getBucket(int bucket) {
+        long count = 0;
+        for (int row = 0; row < cells.length(); row += ROW) {
+            count += cells.get(row + bucket);
+        }
+        return count;
+    }
+
+    /* bucket 0 holds 0, bucket i holds [2^(i-1), 2^i - 1] */
+    private static int bucket(long value) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,9 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+/**
+ * Destination for {@link PortReservationLogger} records.  Implementations are called on the logging thread, which may
+ * be a thread binding a socket, and must not block.
+ */
+public interface LogSink {
+    void log(PortReservationLogger.Level level, String message, Throwable throwable);
+}
@@ -0,0 +1,102 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * A table of one {@code long} slot per port, memory mapped from a file shared by every JVM on the host.  Slots are read
+ * straight from the mapped memory; compare-and-set locks the slot's 8 bytes of the file, so concurrent processes
+ * never interleave their read-compare-write of the same slot.
+ * <p/>
+ * A slot holds {@code (owner << 32) | expirySeconds}; {@code 0} means free.
+ */
+public class MappedLeaseTable implements Closeable {
+    private static final int SLOTS = 65536;
+    private static final long SIZE = SLOTS * 8L;
+    /* file locks are held per JVM, two threads locking the same region would fail rather than wait */
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    public MappedLeaseTable(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            if (this.file.length() < SIZE) {
+                this.file.setLength(SIZE);
+            }
+            channel = this.file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return current value of the slot for {@code port}; may be stale by the time it is used, decisions that matter
+     * are confirmed with {@link #compareAndSet(int, long, long)}
+     */
+    public long get(int port) {
+        return buffer.getLong(slot(port));
+    }
+
+    /**
+     * @return {@code false} only if the slot no longer holds {@code expected}
+     * @throws IOException if the slot can't be locked, e.g. once the table is closed
+     */
+    public boolean compareAndSet(int port, long expected, long update) throws IOException {
+        int slot = slot(port);
+        synchronized (LOCKS[port & (LOCKS.length - 1)]) {
+            FileLock lock = channel.lock(slot, 8, false);
+            try {
+                if (buffer.getLong(slot) != expected) {
+                    return false;
+                }
+                buffer.putLong(slot, update);
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    public static long encode(int owner, long expirySeconds) {
+        return ((long) owner << 32) | (expirySeconds & 0xFFFFFFFFL);
+    }
+
+    public static int owner(long lease) {
+        return (int) (lease >>> 32);
+    }
+
+    public static long expirySeconds(long lease) {
+        return lease & 0xFFFFFFFFL;
+    }
+
+    private static int slot(int port) {
+        if (port < 0 || port >= SLOTS) {
+            throw new IllegalArgumentException("Invalid port " + port);
+        }
+        return port * 8;
+    }
+
+    /**
+     * Close the lease file; the mapping itself is released once it is garbage collected
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -1,21 +1,112 @@
 package com.rachitskillisaurus.portreserve.internal;
 
 /**
+ * Minimal logger usable from bootstrap injected classes.  Logging is off unless enabled with the
+ * {@code portreserve.log.level} system property (one of {@code debug}, {@code info}, {@code error}) or
+ * {@link #setLevel(Level)}.  The level is checked before any formatting happens; enabled records are handed to a
+ * {@link LogSink}, by default an {@link AsyncLogWriter} that never blocks the caller.
+ *
  * @author Dmitry Spikhalskiy <dmitry@spikhalskiy.com>
  */
 public class PortReservationLogger {
-    public static void debug(String str, Object... args) {
-        print(str, args);
+    public static final String LEVEL_PROPERTY = "portreserve.log.level";
+
+    public enum Level {
+        DEBUG, INFO, ERROR, OFF
+    }
+
+    private static volatile Level level = parseLevel(System.getProperty(LEVEL_PROPERTY));
+    private static volatile LogSink sink = new AsyncLogWriter();
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static boolean isEnabled(Level target) {
+        return level.compareTo(target) <= 0;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        PortReservationLogger.level = level;
+    }
+
+    public static LogSink getSink() {
+        return sink;
+    }
+
+    public static void setSink(LogSink sink) {
+        PortReservationLogger.sink = sink;
+    }
+
+    public static void debug(String str, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, str, arg);
+        }
+    }
+
+    public static void debug(String str, Object arg1, Object arg2) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, str, arg1, arg2);
+        }
+    }
+
+    public static void info(String str, Object arg) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, str, arg);
+        }
+    }
+
+    public static void info(String str, Object arg1, Object arg2) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, str, arg1, arg2);
+        }
+    }
+
+    public static void error(String str, Object arg) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, str, arg);
+        }
     }
 
-    public static void error(String str, Object... args) {
-        print(str, args);
+    private static void log(Level target, String str, Object... args) {
+        Object last = args[args.length - 1];
+        Throwable throwable = last instanceof Throwable ? (Throwable) last : null;
+        sink.log(target, format(str, args), throwable);
     }
 
-    private static void print(String str, Object... args) {
+    /**
+     * Substitute each {@code {}} in {@code str} with the next argument
+     *
+     * @param str  message pattern
+     * @param args arguments
+     * @return formatted message
+     */
+    public static String format(String str, Object... args) {
+        StringBuilder sb = new StringBuilder(str.length() + 32);
+        int from = 0;
         for (Object arg : args) {
-            str = str.replace("{}", arg.toString());
+            int at = str.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            sb.append(str, from, at).append(arg);
+            from = at + 2;
+        }
+        return sb.append(str, from, str.length()).toString();
+    }
+
+    private static Level parseLevel(String value) {
+        if (value != null) {
+            for (Level candidate : Level.values()) {
+                if (candidate.name().equalsIgnoreCase(value.trim())) {
+                    return candidate;
+                }
+            }
         }
-        System.out.println(str);
+        return Level.OFF;
     }
 }
@@ -0,0 +1,77 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+/**
+ * Raw counters and histograms updated by reservations and bind interception.  Injected into the bootstrap classloader
+ * alongside the interceptors; {@link com.rachitskillisaurus.portreserve.PortReservationMetrics} is the public view.
+ */
+public enum PortReserveMetrics {
+    INSTANCE;
+
+    private final StripedCounter reservationsCreated = new StripedCounter();
+    private final StripedCounter reservationsClosed = new StripedCounter();
+    private final StripedCounter interceptedBinds = new StripedCounter();
+    private final StripedCounter passThroughBinds = new StripedCounter();
+    private final Histogram reserveNanos = new Histogram();
+    private final Histogram transferNanos = new Histogram();
+    private final Histogram portsProbed = new Histogram();
+
+    public void reservationCreated(long nanos) {
+        reservationsCreated.increment();
+        reserveNanos.record(nanos);
+    }
+
+    public void reservationClosed() {
+        reservationsClosed.increment();
+    }
+
+    public void bindIntercepted() {
+        interceptedBinds.increment();
+    }
+
+    /**
+     * Count a bind that was checked against reservations while a transfer was active but didn't take one over.  Binds
+     * made while no transfer is active aren't counted, so they stay free of shared writes.
+     */
+    public void bindPassedThrough() {
+        passThroughBinds.increment();
+    }
+
+    public void transferCompleted(long nanos) {
+        transferNanos.record(nanos);
+    }
+
+    /**
+     * @param probes ports tried by a probing reservation, including the one finally reserved
+     */
+    public void portsProbed(int probes) {
+        portsProbed.record(probes);
+    }
+
+    public long getReservationsCreated() {
+        return reservationsCreated.sum();
+    }
+
+    public long getReservationsClosed() {
+        return reservationsClosed.sum();
+    }
+
+    public long getInterceptedBinds() {
+        return interceptedBinds.sum();
+    }
+
+    public long getPassThroughBinds() {
+        return passThroughBinds.sum();
+    }
+
+    public Histogram getReserveNanos() {
+        return reserveNanos;
+    }
+
+    public Histogram getTransferNanos() {
+        return transferNanos;
+    }
+
+    public Histogram getPortsProbed() {
+        return portsProbed;
+    }
+}
@@ -0,0 +1,114 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.SocketImpl;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * {@code SO_REUSEPORT} support.  The option and {@code ServerSocket#setOption} only exist on JDK 9+, so both are looked
+ * up reflectively; on JDK 8 the option is reported as unsupported.
+ */
+public final class ReusePort {
+    private static final SocketOption<Boolean> SO_REUSEPORT = option();
+    /* SocketOptions.SO_REUSEPORT, JDK 9+ */
+    private static final int SO_REUSEPORT_ID = 0x0E;
+    private static volatile Boolean supported;
+
+    private ReusePort() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> option() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if server sockets on this JVM and platform support {@code SO_REUSEPORT}
+     */
+    public static boolean isSupported() {
+        Boolean result = supported;
+        if (result == null) {
+            result = SO_REUSEPORT != null && probe();
+            supported = result;
+        }
+        return result;
+    }
+
+    private static boolean probe() {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                return channel.supportedOptions().contains(SO_REUSEPORT);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Enable {@code SO_REUSEPORT} on an unbound server socket or channel
+     *
+     * @param socket a {@link ServerSocket} or {@link NetworkChannel}
+     * @throws IOException                   if the option can't be set
+     * @throws UnsupportedOperationException if {@code SO_REUSEPORT} isn't supported
+     */
+    public static void enable(Object socket) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("SO_REUSEPORT is not supported");
+        }
+        if (socket instanceof NetworkChannel) {
+            ((NetworkChannel) socket).setOption(SO_REUSEPORT, true);
+        } else {
+            invoke(socket, "setOption", new Class<?>[] {SocketOption.class, Object.class}, SO_REUSEPORT, true);
+        }
+    }
+
+    /**
+     * @param socket a {@link ServerSocket}, {@link NetworkChannel} or {@link SocketImpl}
+     * @return {@code true} if {@code SO_REUSEPORT} is enabled on {@code socket}
+     */
+    public static boolean isEnabled(Object socket) {
+        if (SO_REUSEPORT == null) {
+            return false;
+        }
+        try {
+            if (socket instanceof SocketImpl) {
+                return Boolean.TRUE.equals(((SocketImpl) socket).getOption(SO_REUSEPORT_ID));
+            }
+            if (socket instanceof NetworkChannel) {
+                return ((NetworkChannel) socket).getOption(SO_REUSEPORT);
+            }
+            return Boolean.TRUE.equals(invoke(socket, "getOption", new Class<?>[] {SocketOption.class}, SO_REUSEPORT));
+        } catch (IOException e) {
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static Object invoke(Object socket, String name, Class<?>[] types, Object... args) throws IOException {
+        try {
+            Method method = ServerSocket.class.getMethod(name, types);
+            return method.invoke(socket, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new UnsupportedOperationException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+}
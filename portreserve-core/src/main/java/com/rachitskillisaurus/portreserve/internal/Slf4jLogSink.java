@@ -0,0 +1,34 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LogSink} bridging to SLF4J, installed by {@link com.rachitskillisaurus.portreserve.PortReservationProvider}
+ * when SLF4J is on the classpath.  Lives outside of the bootstrap classloader, which can't see SLF4J.
+ */
+public class Slf4jLogSink implements LogSink {
+    private final Logger logger = LoggerFactory.getLogger("com.rachitskillisaurus.portreserve");
+
+    /**
+     * Install as the {@link PortReservationLogger} sink.  Done from here rather than by the caller, whose verification
+     * would otherwise load {@link LogSink} before it's injected into the bootstrap classloader.
+     */
+    public static void install() {
+        PortReservationLogger.setSink(new Slf4jLogSink());
+    }
+
+    @Override
+    public void log(PortReservationLogger.Level level, String message, Throwable throwable) {
+        switch (level) {
+            case DEBUG:
+                logger.debug(message, throwable);
+                break;
+            case INFO:
+                logger.info(message, throwable);
+                break;
+            default:
+                logger.error(message, throwable);
+        }
+    }
+}
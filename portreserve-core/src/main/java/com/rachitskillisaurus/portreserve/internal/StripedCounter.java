@@ -0,0 +1,51 @@
+package com.rachitskillisaurus.portreserve.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over cache line padded cells picked by thread id, so concurrent increments from intercepted binds on
+ * different threads rarely contend.  Reads sum all cells and are not atomic with respect to concurrent updates.
+ */
+public class StripedCounter {
+    /* 16 longs = 128 bytes between cells, covers adjacent line prefetch */
+    static final int PADDING = 16;
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(cell(), delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int cell() {
+        return stripe() * PADDING;
+    }
+
+    /**
+     * @return stripe of the current thread in {@code [0, STRIPES)}
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,130 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.internal.MappedLeaseTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class PortLeaseCoordinatorTest {
+    /* close to the largest pid_max, hardly ever in use */
+    private static final int DEAD_PID = 4194000;
+
+    private File leaseFile;
+    private PortLeaseCoordinator coordinator;
+    private MappedLeaseTable table;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        PortReservationProvider.get();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        leaseFile = File.createTempFile("portreserve", ".leases");
+        coordinator = new PortLeaseCoordinator(leaseFile);
+        table = new MappedLeaseTable(leaseFile);
+        PortReservationProvider.get().setLeaseCoordinator(coordinator);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        PortReservationProvider.get().setLeaseCoordinator(null);
+        coordinator.close();
+        table.close();
+        leaseFile.delete();
+    }
+
+    @Test
+    public void reservationHoldsLease() throws IOException {
+        PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1060);
+        int port = reservation.getPort();
+        assertTrue(table.get(port) != 0);
+        assertFalse(coordinator.isLeasedByOther(port));
+        reservation.close();
+        assertEquals(0L, table.get(port));
+    }
+
+    @Test
+    public void foreignLeaseSkipped() throws IOException {
+        /* pid 1 is always alive */
+        assertTrue(table.compareAndSet(1070, 0, MappedLeaseTable.encode(PortLeaseCoordinator.owner(1), now() + 60)));
+        assertTrue(coordinator.isLeasedByOther(1070));
+        PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1070);
+        try {
+            assertTrue(reservation.getPort() > 1070);
+        } finally {
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void expiredLeaseReclaimed() throws IOException {
+        assertTrue(table.compareAndSet(1080, 0, MappedLeaseTable.encode(PortLeaseCoordinator.owner(1), now() - 1)));
+        assertFalse(coordinator.isLeasedByOther(1080));
+        PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1080);
+        try {
+            assertEquals(1080, reservation.getPort());
+        } finally {
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void deadOwnerReclaimedOnlyInOwnNamespace() throws IOException {
+        assumeTrue(new File("/proc/self").exists() && !new File("/proc/" + DEAD_PID).exists());
+        long lease = MappedLeaseTable.encode(PortLeaseCoordinator.owner(DEAD_PID), now() + 60);
+        assertTrue(table.compareAndSet(1090, 0, lease));
+        assertFalse(coordinator.isLeasedByOther(1090));
+        /* same pid in another container or boot; /proc can't tell if it is alive, only expiry can */
+        int foreign = MappedLeaseTable.owner(lease) ^ (1 << 31);
+        assertTrue(table.compareAndSet(1090, lease, MappedLeaseTable.encode(foreign, now() + 60)));
+        assertTrue(coordinator.isLeasedByOther(1090));
+        assertTrue(table.compareAndSet(1090, table.get(1090), 0));
+    }
+
+    @Test
+    public void ephemeralPortLeasedByOtherNotHandedOut() throws IOException {
+        PortReservation first = PortReservationProvider.get().reserveEphemeralPort();
+        int leased = first.getPort();
+        first.close();
+        assertTrue(table.compareAndSet(leased, 0, MappedLeaseTable.encode(PortLeaseCoordinator.owner(1), now() + 60)));
+        PortReservation reservation = PortReservationProvider.get().reserveEphemeralPort();
+        try {
+            assertTrue(reservation.getPort() != leased);
+            assertFalse(coordinator.isLeasedByOther(reservation.getPort()));
+        } finally {
+            reservation.close();
+        }
+        assertTrue(coordinator.isLeasedByOther(leased));
+    }
+
+    @Test(timeout = 10000)
+    public void closedCoordinatorFailsFast() {
+        coordinator.close();
+        try {
+            PortReservationProvider.get().reservePort(new InetSocketAddress(1100));
+            fail("a closed coordinator can't lease ports");
+        } catch (IOException expected) {
+        }
+        try {
+            PortReservationProvider.get().reserveEphemeralPort();
+            fail("a closed coordinator can't lease ports");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,45 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.internal.PortReservationLogger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PortReservationLoggerTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        PortReservationProvider.get();
+    }
+
+    @Test
+    public void bootstrapClassloader() {
+        assertNull("Logger must be shared with bootstrap classes", PortReservationLogger.class.getClassLoader());
+    }
+
+    @Test
+    public void format() {
+        assertEquals("a 1 b null c", PortReservationLogger.format("a {} b {} c", 1, null));
+        assertEquals("a 1 b {}", PortReservationLogger.format("a {} b {}", 1));
+        assertEquals("no placeholders", PortReservationLogger.format("no placeholders", 1));
+    }
+
+    @Test
+    public void levels() {
+        PortReservationLogger.Level original = PortReservationLogger.getLevel();
+        try {
+            PortReservationLogger.setLevel(PortReservationLogger.Level.OFF);
+            assertFalse(PortReservationLogger.isDebugEnabled());
+            assertFalse(PortReservationLogger.isEnabled(PortReservationLogger.Level.ERROR));
+            PortReservationLogger.setLevel(PortReservationLogger.Level.INFO);
+            assertFalse(PortReservationLogger.isDebugEnabled());
+            assertTrue(PortReservationLogger.isEnabled(PortReservationLogger.Level.ERROR));
+        } finally {
+            PortReservationLogger.setLevel(original);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.internal.Histogram;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PortReservationMetricsTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        PortReservationProvider.get();
+    }
+
+    @Test
+    public void transferCounted() throws IOException {
+        PortReservationMetrics before = PortReservationProvider.get().getMetrics();
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1100);
+        final AtomicReference<ServerSocket> ref = new AtomicReference<ServerSocket>();
+        try {
+            assertEquals(before.getReservationsCreated() + 1,
+                         PortReservationProvider.get().getMetrics().getReservationsCreated());
+            reservation.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    /* checked against the reservations, but nothing to take over */
+                    new ServerSocket(0).close();
+                    ref.set(new ServerSocket(reservation.getPort()));
+                    return null;
+                }
+            });
+        } finally {
+            if (ref.get() != null) {
+                ref.get().close();
+            }
+            reservation.close();
+        }
+        PortReservationMetrics after = PortReservationProvider.get().getMetrics();
+        assertEquals(before.getInterceptedBinds() + 1, after.getInterceptedBinds());
+        assertTrue(after.getPassThroughBinds() > before.getPassThroughBinds());
+        assertEquals(before.getTransfers() + 1, after.getTransfers());
+        assertEquals(before.getReservationsClosed() + 1, after.getReservationsClosed());
+        assertTrue(after.getPortsProbedMax() >= 1);
+    }
+
+    @Test
+    public void recyclingKeepsLiveCount() throws IOException {
+        long live = PortReservationProvider.get().getMetrics().getLiveReservations();
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1105);
+        try {
+            reservation.setRecycling(true);
+            for (int i = 0; i < 2; i++) {
+                ServerSocket serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                    @Override
+                    public ServerSocket transfer() throws Exception {
+                        return new ServerSocket(reservation.getPort());
+                    }
+                });
+                serverSocket.close();
+                assertEquals(live + 1, PortReservationProvider.get().getMetrics().getLiveReservations());
+            }
+        } finally {
+            reservation.close();
+        }
+        assertEquals(live, PortReservationProvider.get().getMetrics().getLiveReservations());
+    }
+
+    @Test
+    public void mbeanRegistered() throws Exception {
+        Object created = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(PortReservationMetrics.OBJECT_NAME), "ReservationsCreated");
+        assertTrue((Long) created >= 0);
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertTrue(Math.abs(histogram.getMean() - 50.5) < 0.001);
+        assertEquals(100, histogram.getMax());
+        long median = histogram.getPercentile(0.5);
+        assertTrue(median >= 50 && median < 100);
+        assertEquals(100, histogram.getPercentile(1));
+    }
+}
@@ -0,0 +1,88 @@
+package com.rachitskillisaurus.portreserve;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PortReservationPoolTest {
+    private PortReservationPool pool;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        PortReservationProvider.get();
+    }
+
+    @Before
+    public void setUp() {
+        pool = new PortReservationPool(2, 8);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void takeFromWarmPool() throws Exception {
+        /* first take registers the address with the refill thread */
+        PortReservation first = pool.take();
+        try {
+            awaitIdle(2);
+            final PortReservation reservation = pool.take();
+            try {
+                assertFalse(reservation.isClosed());
+                ServerSocket serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                    @Override
+                    public ServerSocket transfer() throws IOException {
+                        return new ServerSocket(reservation.getPort());
+                    }
+                });
+                assertEquals(reservation.getPort(), serverSocket.getLocalPort());
+                serverSocket.close();
+            } finally {
+                reservation.close();
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test
+    public void closeReleasesIdleReservations() throws Exception {
+        pool.take().close();
+        awaitIdle(2);
+        pool.close();
+        assertEquals(0, pool.getIdle(null));
+    }
+
+    @Test
+    public void growsWithDemand() throws Exception {
+        List<PortReservation> taken = new ArrayList<PortReservation>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                taken.add(pool.take());
+            }
+            awaitIdle(3);
+        } finally {
+            PortReservation.close(taken);
+        }
+    }
+
+    private void awaitIdle(int idle) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdle(null) < idle) {
+            assertTrue("pool did not refill", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
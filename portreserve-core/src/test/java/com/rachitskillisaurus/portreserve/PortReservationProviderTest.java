@@ -1,23 +1,54 @@
 package com.rachitskillisaurus.portreserve;
 
 import com.rachitskillisaurus.portreserve.bb.PortReservationAgent;
+import com.rachitskillisaurus.portreserve.bootstrap.HasDelegate;
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
 import com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry;
+import com.rachitskillisaurus.portreserve.internal.ReusePort;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.SocketImpl;
+import java.net.SocketOption;
+import java.net.SocketOptions;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public class PortReservationProviderTest {
 
@@ -178,12 +209,14 @@ public class PortReservationProviderTest {
 
     @Test
     public void bootstrapClassloader() throws Exception {
+        assertNull("Class must be loaded by bootstrap classloader", PortReservationRegistry.class.getClassLoader());
         assertNull("Class must be loaded by bootstrap classloader", Class.forName(
                 PortReservationAgent.SOCKET_IMPL_CLASSNAME).getClassLoader());
     }
 
     @Test
     public void methodsDelegating() throws Exception {
+        assertTrue(PortReservationAgent.isSocketImplProxySupported());
         final PortReservation firstReservation = PortReservationProvider.get().reserveOpenPort(1029);
         try {
             System.out.println(firstReservation);
@@ -209,10 +242,18 @@ public class PortReservationProviderTest {
 
             SocketImpl originalSocketImpl = DelegateUtil.getDelegate(overriddenSocketImpl);
 
-            Method m = SocketImpl.class.getDeclaredMethod("getServerSocket");
-            m.setAccessible(true);
-            assertEquals("Package-local methods should return same result",
-                         m.invoke(originalSocketImpl), m.invoke(overriddenSocketImpl));
+            Method m;
+            try {
+                m = SocketImpl.class.getDeclaredMethod("getServerSocket");
+                m.setAccessible(true);
+                assertEquals("Package-local methods should return same result",
+                             m.invoke(originalSocketImpl), m.invoke(overriddenSocketImpl));
+            } catch (NoSuchMethodException e) {
+                /* JDK 13+ ServerSocket calls no package-local methods, but only accepts through platform SocketImpls */
+                Class<?> platformSocketImpl = Class.forName("sun.net.PlatformSocketImpl");
+                assertTrue(platformSocketImpl.isInstance(originalSocketImpl));
+                assertTrue(platformSocketImpl.isInstance(overriddenSocketImpl));
+            }
 
             m = SocketImpl.class.getDeclaredMethod("getLocalPort");
             m.setAccessible(true);
@@ -223,6 +264,800 @@ public class PortReservationProviderTest {
         }
     }
 
+    @Test
+    public void channelTransfer() throws IOException {
+        int initialSize = PortReservationRegistry.INSTANCE.size();
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1030);
+        final AtomicReference<ServerSocketChannel> ref = new AtomicReference<ServerSocketChannel>();
+        try {
+            assertExceptionReservingPort(reservation.getPort());
+            reservation.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    ServerSocketChannel channel = ServerSocketChannel.open();
+                    channel.socket().bind(new InetSocketAddress(reservation.getPort()));
+                    ref.set(channel);
+                    return null;
+                }
+            });
+            assertTrue(ref.get().socket().isBound());
+            assertEquals(reservation.getPort(), ref.get().socket().getLocalPort());
+            assertTrue(reservation.isClosed());
+            assertEquals(initialSize, PortReservationRegistry.INSTANCE.size());
+        } finally {
+            reservation.close();
+            if (ref.get() != null) {
+                ref.get().close();
+            }
+        }
+    }
+
+    @Test
+    public void unreservedBindAndClose() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            assertTrue(ss.isBound());
+            assertTrue(ss.getLocalPort() > 0);
+            assertNull(((HasDelegate) getImpl(ss)).getReservation());
+        } finally {
+            ss.close();
+        }
+        assertTrue(ss.isClosed());
+        new ServerSocket(ss.getLocalPort()).close();
+    }
+
+    @Test
+    public void activeTransfersTracked() throws IOException {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1031);
+        try {
+            assertEquals(0, PortReservationProvider.get().getActiveTransfers());
+            final int epoch = PortReservationRegistry.INSTANCE.getTransferEpoch();
+            reservation.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    assertEquals(1, PortReservationProvider.get().getActiveTransfers());
+                    assertEquals(epoch + 1, PortReservationRegistry.INSTANCE.getTransferEpoch());
+                    return null;
+                }
+            });
+            assertEquals(0, PortReservationProvider.get().getActiveTransfers());
+            assertEquals(epoch + 2, PortReservationRegistry.INSTANCE.getTransferEpoch());
+        } finally {
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void ephemeralReservation() throws IOException {
+        int initialSize = PortReservationRegistry.INSTANCE.size();
+        final PortReservation reservation = PortReservationProvider.get().reserveEphemeralPort();
+        try {
+            assertTrue(reservation.getPort() > 0);
+            assertEquals(initialSize + 1, PortReservationRegistry.INSTANCE.size());
+            assertNotNull(PortReservationRegistry.INSTANCE.get(new InetSocketAddress(reservation.getPort())));
+            assertExceptionReservingPort(reservation.getPort());
+            final AtomicReference<ServerSocket> ref = new AtomicReference<ServerSocket>();
+            reservation.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    ref.set(new ServerSocket(reservation.getPort()));
+                    return null;
+                }
+            });
+            assertTrue(ref.get().isBound());
+        } finally {
+            reservation.close();
+        }
+        assertEquals(initialSize, PortReservationRegistry.INSTANCE.size());
+    }
+
+    @Test
+    public void ephemeralReservationInRange() throws IOException {
+        final PortReservation reservation = PortReservationProvider.get().reserveEphemeralPort(null, 1032, 1040);
+        try {
+            assertTrue(reservation.getPort() >= 1032 && reservation.getPort() <= 1040);
+        } finally {
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void bulkReservation() throws IOException {
+        int initialSize = PortReservationRegistry.INSTANCE.size();
+        final List<PortReservation> reservations = PortReservationProvider.get().reserveOpenPorts(5, 1041);
+        try {
+            assertEquals(5, reservations.size());
+            for (int i = 1; i < reservations.size(); i++) {
+                assertTrue(reservations.get(i).getPort() > reservations.get(i - 1).getPort());
+            }
+            assertEquals(initialSize + 5, PortReservationRegistry.INSTANCE.size());
+        } finally {
+            PortReservation.close(reservations);
+        }
+        assertEquals(initialSize, PortReservationRegistry.INSTANCE.size());
+    }
+
+    @Test
+    public void contiguousBulkReservation() throws IOException {
+        final PortReservation blocker = PortReservationProvider.get().reserveOpenPort(1052);
+        try {
+            List<PortReservation> reservations =
+                    PortReservationProvider.get().reserveOpenPorts(3, null, blocker.getPort() - 2, true);
+            try {
+                assertEquals(blocker.getPort() + 1, reservations.get(0).getPort());
+                assertEquals(blocker.getPort() + 3, reservations.get(2).getPort());
+            } finally {
+                PortReservation.close(reservations);
+            }
+        } finally {
+            blocker.close();
+        }
+    }
+
+    @Test
+    public void wildcardReservationMatchesSpecificBind() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1090);
+        final AtomicReference<ServerSocket> ref = new AtomicReference<ServerSocket>();
+        try {
+            final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+            /* nothing can be reserved on a port this test holds itself */
+            ServerSocket unreserved = new ServerSocket(0);
+            try {
+                assertNull(PortReservationRegistry.INSTANCE.get(loopback, unreserved.getLocalPort()));
+            } finally {
+                unreserved.close();
+            }
+            assertNotNull(PortReservationRegistry.INSTANCE.get(loopback, reservation.getPort()));
+            reservation.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    ref.set(new ServerSocket(reservation.getPort(), 0, loopback));
+                    return null;
+                }
+            });
+            assertTransferred(reservation, ref.get());
+        } finally {
+            if (ref.get() != null) {
+                ref.get().close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void asyncTransfer() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1110);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ServerSocket serverSocket = null;
+        try {
+            CompletableFuture<ServerSocket> future = reservation.transferAsync(new TransferCallback<ServerSocket>() {
+                @Override
+                public ServerSocket transfer() throws Exception {
+                    return new ServerSocket(reservation.getPort());
+                }
+            }, executor);
+            serverSocket = future.get(30, TimeUnit.SECONDS);
+            assertTransferred(reservation, serverSocket);
+            assertEquals(0, PortReservationProvider.get().getActiveTransfers());
+        } finally {
+            executor.shutdown();
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void transferScopedToCallingContext() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1120);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicReference<ServerSocket> ref = new AtomicReference<ServerSocket>();
+        try {
+            /* start the pool thread outside of the transfer so it doesn't inherit it */
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+            final Callable<ServerSocket> bind = new Callable<ServerSocket>() {
+                @Override
+                public ServerSocket call() throws Exception {
+                    return new ServerSocket(reservation.getPort());
+                }
+            };
+            reservation.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    try {
+                        executor.submit(bind).get().close();
+                        fail("bind outside of the transfer context must not take over the reservation");
+                    } catch (ExecutionException e) {
+                        assertTrue(e.getCause() instanceof IOException);
+                    }
+                    ref.set(executor.submit(TransferContext.wrap(bind)).get());
+                    return null;
+                }
+            });
+            assertTransferred(reservation, ref.get());
+        } finally {
+            executor.shutdown();
+            if (ref.get() != null) {
+                ref.get().close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void acceptAndReadOnTransferredSocket() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1130);
+        ServerSocket serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+            @Override
+            public ServerSocket transfer() throws Exception {
+                return new ServerSocket(reservation.getPort());
+            }
+        });
+        try {
+            assertTransferred(reservation, serverSocket);
+            Socket client = new Socket(InetAddress.getLoopbackAddress(), reservation.getPort());
+            Socket accepted = serverSocket.accept();
+            try {
+                client.getOutputStream().write(42);
+                assertEquals(42, accepted.getInputStream().read());
+            } finally {
+                accepted.close();
+                client.close();
+            }
+        } finally {
+            serverSocket.close();
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void interceptionPolicy() throws Exception {
+        PortReservationProvider.get().setInterceptionPolicy(InterceptionPolicy.whileTransferring());
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1140);
+        try {
+            ServerSocket unreserved = new ServerSocket(0);
+            try {
+                /* created outside of a transfer, so the factory hands out the platform SocketImpl itself */
+                assertFalse(getImpl(unreserved) instanceof HasDelegate);
+            } finally {
+                unreserved.close();
+            }
+            ServerSocket serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                @Override
+                public ServerSocket transfer() throws Exception {
+                    return new ServerSocket(reservation.getPort());
+                }
+            });
+            assertTransferred(reservation, serverSocket);
+            serverSocket.close();
+        } finally {
+            reservation.close();
+        }
+
+        PortReservationProvider.get().setInterceptionPolicy(InterceptionPolicy.always().ports(1, 1023));
+        final PortReservation excluded = PortReservationProvider.get().reserveOpenPort(1141);
+        try {
+            excluded.transfer(new TransferCallback() {
+                @Override
+                public Void transfer() throws Exception {
+                    assertExceptionReservingPort(excluded.getPort());
+                    return null;
+                }
+            });
+            assertFalse(excluded.isClosed());
+        } finally {
+            PortReservationProvider.get().setInterceptionPolicy(InterceptionPolicy.always());
+            excluded.close();
+        }
+    }
+
+    @Test
+    public void datagramTransfer() throws Exception {
+        int initialSize = PortReservationRegistry.DATAGRAM.size();
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenDatagramPort(1150);
+        final PortReservation tcp = PortReservationProvider.get().reservePort(
+                new InetSocketAddress(reservation.getPort()));
+        DatagramSocket socket = null;
+        try {
+            assertTrue(reservation.isDatagram());
+            assertEquals(initialSize + 1, PortReservationRegistry.DATAGRAM.size());
+            try {
+                new DatagramSocket(reservation.getPort()).close();
+                fail("reserved UDP port must not be bindable outside of a transfer");
+            } catch (SocketException expected) {
+            }
+            socket = reservation.transfer(new TransferCallback<DatagramSocket>() {
+                @Override
+                public DatagramSocket transfer() throws Exception {
+                    return new DatagramSocket(reservation.getPort());
+                }
+            });
+            assertEquals(reservation.getPort(), socket.getLocalPort());
+            assertTrue(reservation.isClosed());
+            assertFalse("TCP reservation on the same port is unaffected", tcp.isClosed());
+            assertEquals(initialSize, PortReservationRegistry.DATAGRAM.size());
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            reservation.close();
+            tcp.close();
+        }
+    }
+
+    @Test
+    public void datagramChannelTransfer() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenDatagramPort(1151);
+        DatagramChannel channel = null;
+        try {
+            channel = reservation.transfer(new TransferCallback<DatagramChannel>() {
+                @Override
+                public DatagramChannel transfer() throws Exception {
+                    return DatagramChannel.open().bind(new InetSocketAddress(reservation.getPort()));
+                }
+            });
+            assertEquals(reservation.getPort(), ((InetSocketAddress) channel.getLocalAddress()).getPort());
+            assertTrue(reservation.isClosed());
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void leakedReservationReclaimed() throws Exception {
+        int port = leakReservation(1160);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            System.gc();
+            try {
+                new ServerSocket(port).close();
+                break;
+            } catch (IOException stillReserved) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("leaked reservation on port " + port + " was not reclaimed");
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static int leakReservation(int startPort) {
+        return PortReservationProvider.get().reserveOpenPort(startPort).getPort();
+    }
+
+    @Test
+    public void reservationTtl() throws Exception {
+        PortReservationProvider.get().setReservationTtl(200);
+        PortReservation reservation;
+        try {
+            reservation = PortReservationProvider.get().reserveOpenPort(1161);
+        } finally {
+            PortReservationProvider.get().setReservationTtl(0);
+        }
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!reservation.isClosed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue("expired reservation must be closed", reservation.isClosed());
+            new ServerSocket(reservation.getPort()).close();
+        } finally {
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void recyclingReservation() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1170);
+        try {
+            reservation.setRecycling(true);
+            for (int i = 0; i < 3; i++) {
+                ServerSocket serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                    @Override
+                    public ServerSocket transfer() throws Exception {
+                        return new ServerSocket(reservation.getPort());
+                    }
+                });
+                assertTransferred(reservation, serverSocket);
+                serverSocket.close();
+                assertFalse(reservation.isClosed());
+                assertExceptionReservingPort(reservation.getPort());
+            }
+            ServerSocketChannel channel = reservation.transfer(new TransferCallback<ServerSocketChannel>() {
+                @Override
+                public ServerSocketChannel transfer() throws Exception {
+                    return ServerSocketChannel.open().bind(new InetSocketAddress(reservation.getPort()));
+                }
+            });
+            assertTrue(reservation.isClosed());
+            channel.close();
+            assertFalse(reservation.isClosed());
+            assertExceptionReservingPort(reservation.getPort());
+        } finally {
+            reservation.close();
+        }
+        assertFalse(reservation.isRecycling());
+        new ServerSocket(reservation.getPort()).close();
+    }
+
+    @Test
+    public void reusePortReservation() throws Exception {
+        assumeTrue(PortReservationProvider.get().isReusePortSupported());
+        final PortReservation reservation = PortReservationProvider.get().reserveReusePort(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 3);
+        final List<ServerSocketChannel> channels = new ArrayList<ServerSocketChannel>();
+        try {
+            assertEquals(3, reservation.getServerSockets().size());
+            reservation.transfer(new TransferCallback<Void>() {
+                @Override
+                public Void transfer() throws Exception {
+                    for (int i = 0; i < 3; i++) {
+                        ServerSocketChannel channel = ServerSocketChannel.open();
+                        channels.add(channel);
+                        ReusePort.enable(channel);
+                        channel.bind(reservation.getSocketAddress());
+                        /* no listener is left holding connections once the first channel bound */
+                        assertTrue(reservation.isClosed());
+                        for (ServerSocket listener : reservation.getServerSockets()) {
+                            assertTrue(listener.isClosed());
+                        }
+                    }
+                    return null;
+                }
+            });
+            assertTrue(reservation.isClosed());
+            new Socket(InetAddress.getLoopbackAddress(), reservation.getPort()).close();
+        } finally {
+            for (ServerSocketChannel channel : channels) {
+                channel.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void reusePortListenersHandedOver() throws Exception {
+        assumeTrue(PortReservationProvider.get().isReusePortSupported());
+        final PortReservation reservation = PortReservationProvider.get().reserveReusePort(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 3);
+        final List<ServerSocket> serverSockets = new ArrayList<ServerSocket>();
+        try {
+            List<SocketImpl> listenerImpls = new ArrayList<SocketImpl>();
+            for (ServerSocket listener : reservation.getServerSockets()) {
+                listenerImpls.add(getImpl(listener));
+            }
+            reservation.transfer(new TransferCallback<Void>() {
+                @Override
+                public Void transfer() throws Exception {
+                    for (int i = 0; i < 3; i++) {
+                        ServerSocket serverSocket = new ServerSocket();
+                        serverSockets.add(serverSocket);
+                        ReusePort.enable(serverSocket);
+                        serverSocket.bind(reservation.getSocketAddress());
+                    }
+                    return null;
+                }
+            });
+            /* every listener went to a server socket instead of being closed under queued connections */
+            List<SocketImpl> delegates = new ArrayList<SocketImpl>();
+            for (ServerSocket serverSocket : serverSockets) {
+                delegates.add(DelegateUtil.getDelegate(getImpl(serverSocket)));
+            }
+            assertTrue(delegates.containsAll(listenerImpls));
+            /* the server socket the reservation went to owns it until it is closed */
+            assertFalse(reservation.isClosed());
+        } finally {
+            for (ServerSocket serverSocket : serverSockets) {
+                serverSocket.close();
+            }
+        }
+        assertTrue(reservation.isClosed());
+        new ServerSocket(reservation.getPort(), 1, InetAddress.getLoopbackAddress()).close();
+    }
+
+    @Test
+    public void reusePortListenersNotTakenOverClosed() throws Exception {
+        assumeTrue(PortReservationProvider.get().isReusePortSupported());
+        final PortReservation reservation = PortReservationProvider.get().reserveReusePort(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 3);
+        ServerSocket serverSocket = null;
+        try {
+            serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                @Override
+                public ServerSocket transfer() throws Exception {
+                    ServerSocket serverSocket = new ServerSocket();
+                    ReusePort.enable(serverSocket);
+                    serverSocket.bind(reservation.getSocketAddress());
+                    assertFalse(reservation.isClosed());
+                    return serverSocket;
+                }
+            });
+            assertTrue(reservation.isClosed());
+            /* the last listener went to the server, handed over or released right before its bind */
+            List<ServerSocket> listeners = reservation.getServerSockets();
+            for (ServerSocket listener : listeners.subList(0, listeners.size() - 1)) {
+                assertTrue(listener.isClosed());
+            }
+            assertTrue(serverSocket.isBound());
+            serverSocket.setSoTimeout(5000);
+            Socket client = new Socket(InetAddress.getLoopbackAddress(), reservation.getPort());
+            try {
+                serverSocket.accept().close();
+            } finally {
+                client.close();
+            }
+        } finally {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void reservationOptionsAppliedBeforeBind() throws Exception {
+        ReservationOptions options = ReservationOptions.defaults()
+                .backlog(1024).receiveBufferSize(131072).reuseAddress(false);
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(null, 1190, 65534, options);
+        ServerSocket serverSocket = null;
+        try {
+            assertTrue(reservation.getServerSocket().getReceiveBufferSize() >= 131072);
+            assertFalse(reservation.getServerSocket().getReuseAddress());
+            serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                @Override
+                public ServerSocket transfer() throws Exception {
+                    return new ServerSocket(reservation.getPort());
+                }
+            });
+            assertTransferred(reservation, serverSocket);
+            /* the server asked for the default backlog and address reuse, it got the reserved socket's */
+            assertTrue(serverSocket.getReceiveBufferSize() >= 131072);
+            assertFalse(serverSocket.getReuseAddress());
+            List<Socket> clients = new ArrayList<Socket>();
+            try {
+                /* more pending connections than the backlog of 50 the server passed to bind would queue */
+                for (int i = 0; i < 200; i++) {
+                    Socket client = new Socket();
+                    clients.add(client);
+                    client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), reservation.getPort()),
+                                   2000);
+                }
+            } finally {
+                for (Socket client : clients) {
+                    client.close();
+                }
+            }
+        } finally {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void optionsSetBeforeBindKept() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1200);
+        ServerSocket serverSocket = null;
+        try {
+            final SocketImpl reservedSocketImpl = getImpl(reservation.getServerSocket());
+            serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                @Override
+                public ServerSocket transfer() throws Exception {
+                    ServerSocket serverSocket = new ServerSocket();
+                    serverSocket.setSoTimeout(100);
+                    serverSocket.setReceiveBufferSize(262144);
+                    Map<Object, Object> recorded = ((HasDelegate) getImpl(serverSocket)).getOptions();
+                    assertEquals(262144, recorded.get(SocketOptions.SO_RCVBUF));
+                    serverSocket.bind(new InetSocketAddress(reservation.getPort()));
+                    return serverSocket;
+                }
+            });
+            assertTransferred(reservation, serverSocket);
+            /* bind swapped in the reserved SocketImpl and replayed what was recorded onto it */
+            HasDelegate proxy = (HasDelegate) getImpl(serverSocket);
+            assertSame(reservedSocketImpl, proxy.getDelegate());
+            assertTrue(proxy.getOptions().isEmpty());
+            assertEquals(100, serverSocket.getSoTimeout());
+            assertTrue(serverSocket.getReceiveBufferSize() >= 262144);
+            try {
+                serverSocket.accept().close();
+                fail("accept should time out");
+            } catch (SocketTimeoutException expected) {
+            }
+        } finally {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void socketOptionSetBeforeBindKept() throws Exception {
+        final Method setOption;
+        try {
+            /* JDK 9+, reaches the SocketImpl through setOption(SocketOption, Object) rather than the option id */
+            setOption = ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class);
+        } catch (NoSuchMethodException e) {
+            assumeTrue("ServerSocket.setOption(SocketOption, Object) needs JDK 9+", false);
+            return;
+        }
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1205);
+        ServerSocket serverSocket = null;
+        try {
+            serverSocket = reservation.transfer(new TransferCallback<ServerSocket>() {
+                @Override
+                public ServerSocket transfer() throws Exception {
+                    ServerSocket serverSocket = new ServerSocket();
+                    setOption.invoke(serverSocket, StandardSocketOptions.SO_RCVBUF, 262144);
+                    Map<Object, Object> recorded = ((HasDelegate) getImpl(serverSocket)).getOptions();
+                    assertEquals(262144, recorded.get(StandardSocketOptions.SO_RCVBUF));
+                    serverSocket.bind(new InetSocketAddress(reservation.getPort()));
+                    return serverSocket;
+                }
+            });
+            assertTransferred(reservation, serverSocket);
+            assertTrue(serverSocket.getReceiveBufferSize() >= 262144);
+        } finally {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            reservation.close();
+        }
+    }
+
+    @Test
+    public void concurrentBindsTakeOverOnce() throws Exception {
+        final PortReservation reservation = PortReservationProvider.get().reserveOpenPort(1210);
+        final List<ServerSocket> bound = new CopyOnWriteArrayList<ServerSocket>();
+        final AtomicInteger failed = new AtomicInteger();
+        try {
+            assertEquals(PortReservationInternal.State.RESERVED, reservation.getInternal().getState());
+            reservation.transfer(new TransferCallback<Void>() {
+                @Override
+                public Void transfer() throws Exception {
+                    assertEquals(PortReservationInternal.State.TRANSFERRING, reservation.getInternal().getState());
+                    final CountDownLatch start = new CountDownLatch(1);
+                    List<Thread> threads = new ArrayList<Thread>();
+                    for (int i = 0; i < 8; i++) {
+                        /* started inside the callback, so every thread binds within the transfer scope */
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    start.await();
+                                    bound.add(new ServerSocket(reservation.getPort()));
+                                } catch (IOException e) {
+                                    failed.incrementAndGet();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        });
+                        thread.start();
+                        threads.add(thread);
+                    }
+                    start.countDown();
+                    for (Thread thread : threads) {
+                        thread.join();
+                    }
+                    return null;
+                }
+            });
+            assertEquals(1, bound.size());
+            assertEquals(7, failed.get());
+            assertTransferred(reservation, bound.get(0));
+            assertEquals(0, PortReservationProvider.get().getActiveTransfers());
+        } finally {
+            for (ServerSocket serverSocket : bound) {
+                serverSocket.close();
+            }
+            reservation.close();
+        }
+        assertEquals(PortReservationInternal.State.CLOSED, reservation.getInternal().getState());
+    }
+
+    @Test
+    public void busyPortsSkipped() throws Exception {
+        List<PortReservation> reservations = new ArrayList<PortReservation>();
+        ServerSocket blocker = new ServerSocket(1220);
+        try {
+            reservations.add(PortReservationProvider.get().reserveOpenPort(null, 1220, 1230));
+            assertEquals(1221, reservations.get(0).getPort());
+            blocker.close();
+            /* 1220 is free again, but still remembered as busy */
+            reservations.add(PortReservationProvider.get().reserveOpenPort(null, 1220, 1230));
+            assertEquals(1222, reservations.get(1).getPort());
+            /* closing a reservation forgets its port right away */
+            reservations.remove(0).close();
+            reservations.add(PortReservationProvider.get().reserveOpenPort(null, 1220, 1230));
+            assertEquals(1221, reservations.get(1).getPort());
+            PortReservationProvider.get().setBusyPortTtl(0);
+            reservations.add(PortReservationProvider.get().reserveOpenPort(null, 1220, 1230));
+            assertEquals(1220, reservations.get(2).getPort());
+        } finally {
+            PortReservationProvider.get().setBusyPortTtl(PortAllocator.DEFAULT_BUSY_TTL_MILLIS);
+            blocker.close();
+            PortReservation.close(reservations);
+        }
+    }
+
+    @Test
+    public void busyPortsRetriedBeforeExhaustion() throws Exception {
+        ServerSocket first = new ServerSocket(1240);
+        ServerSocket second = new ServerSocket(1241);
+        try {
+            PortReservationProvider.get().reserveOpenPort(null, 1240, 1241);
+            fail("both ports are bound");
+        } catch (RuntimeException expected) {
+            /* both ports are now remembered as busy */
+        } finally {
+            first.close();
+            second.close();
+        }
+        PortReservation reservation = PortReservationProvider.get().reserveOpenPort(null, 1240, 1241);
+        reservation.close();
+        assertEquals(1240, reservation.getPort());
+    }
+
+    @Test
+    public void concurrentOpenPortsSpread() throws Exception {
+        final int threads = 8;
+        final int perThread = 4;
+        final List<PortReservation> reservations = new CopyOnWriteArrayList<PortReservation>();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int j = 0; j < perThread; j++) {
+                            reservations.add(PortReservationProvider.get().reserveOpenPort(null, 1250, 1350));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            Set<Integer> ports = new HashSet<Integer>();
+            for (PortReservation reservation : reservations) {
+                assertTrue(reservation.getPort() >= 1250 && reservation.getPort() <= 1350);
+                assertTrue("port reserved twice: " + reservation.getPort(), ports.add(reservation.getPort()));
+            }
+            assertEquals(threads * perThread, ports.size());
+        } finally {
+            executor.shutdownNow();
+            PortReservation.close(reservations);
+        }
+    }
+
+    private static void assertTransferred(PortReservation reservation, ServerSocket serverSocket) throws Exception {
+        assertTrue(serverSocket.isBound());
+        assertEquals(reservation.getPort(), serverSocket.getLocalPort());
+        assertNotNull(((HasDelegate) getImpl(serverSocket)).getReservation());
+    }
+
+    private static SocketImpl getImpl(ServerSocket ss) throws Exception {
+        Field implField = ServerSocket.class.getDeclaredField("impl");
+        implField.setAccessible(true);
+        return (SocketImpl) implField.get(ss);
+    }
+
     private void assertExceptionReservingPort(int port) {
         IOException caught = null;
         try {
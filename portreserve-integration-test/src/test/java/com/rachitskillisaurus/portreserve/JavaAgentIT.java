@@ -0,0 +1,39 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bb.PortReservationAgent;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Run by failsafe with the packaged portreserve-core jar as {@code -javaagent}.
+ */
+public class JavaAgentIT {
+    @Test
+    public void bootstrapJarFoundThroughManifest() throws Exception {
+        assertTrue("premain did not run", PortReservationAgent.isInstalled());
+        assertNotNull(Class.forName("com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry", false, null));
+        /* premain only extracts the embedded bootstrap jar when Boot-Class-Path didn't resolve */
+        File cache = new File(System.getProperty("portreserve.bootstrap.cache"));
+        assertFalse("bootstrap jar was extracted to " + cache, cache.exists());
+    }
+
+    @Test
+    public void serverStartup() throws IOException {
+        final PortReservation portReservation = PortReservationProvider.get().reserveOpenPort();
+        TrivialServer server = portReservation.transfer(new TransferCallback<TrivialServer>() {
+            @Override
+            public TrivialServer transfer() throws Exception {
+                return new TrivialServer(portReservation.getPort());
+            }
+        });
+
+        server.stop();
+        assertTrue(portReservation.isClosed());
+    }
+}
@@ -1,15 +1,15 @@
 package com.rachitskillisaurus.portreserve;
 
 import org.junit.Test;
-import org.junit.Ignore;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author Dmitry Spikhalskiy <dspikhalskiy@spikhalskiy.com>
  */
 public class TrivialServerIntegrationTest {
-    @Ignore // ignoring this test since it serves as a demo of PRs failure thus breaking builds
     @Test
     public void serverStartup() throws IOException {
         final PortReservation portReservation = PortReservationProvider.get().reserveOpenPort();
@@ -21,5 +21,6 @@ public class TrivialServerIntegrationTest {
         });
 
         server.stop();
+        assertTrue(portReservation.isClosed());
     }
 }
@@ -0,0 +1,252 @@
+package com.rachitskillisaurus.portreserve;
+
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationInternal;
+import com.rachitskillisaurus.portreserve.bootstrap.PortReservationRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers reserving, transferring, binding and closing from many threads at once and checks that no port or socket is
+ * owned twice, no registry entry outlives its reservation and no socket is left open.  Scale with
+ * {@code -Dportreserve.stress.threads} and {@code -Dportreserve.stress.iterations}.
+ */
+public class ConcurrencyStressTest {
+    /* binding threads racing for each reservation */
+    private static final int BINDERS = 4;
+
+    private int tcpReservations;
+    private int udpReservations;
+    private long fileDescriptors;
+
+    @BeforeClass
+    public static void setUpClass() {
+        PortReservationProvider.get();
+    }
+
+    @Before
+    public void setUp() {
+        tcpReservations = PortReservationRegistry.INSTANCE.size();
+        udpReservations = PortReservationRegistry.DATAGRAM.size();
+        fileDescriptors = StressRunner.openFileDescriptors();
+    }
+
+    @After
+    public void checkInvariants() {
+        assertEquals("leaked TCP registry entries", tcpReservations, PortReservationRegistry.INSTANCE.size());
+        assertEquals("leaked UDP registry entries", udpReservations, PortReservationRegistry.DATAGRAM.size());
+        assertEquals("reservations left in transfer mode", 0, PortReservationProvider.get().getActiveTransfers());
+        if (fileDescriptors >= 0) {
+            long leaked = StressRunner.openFileDescriptors() - fileDescriptors;
+            /* some slack for descriptors the JDK opens lazily, e.g. the first selector */
+            assertTrue("leaked " + leaked + " file descriptors", leaked < StressRunner.THREADS);
+        }
+    }
+
+    @Test
+    public void reserveAndCloseChurn() throws Exception {
+        final ConcurrentMap<String, PortReservation> live = new ConcurrentHashMap<String, PortReservation>();
+        StressRunner.run(new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) throws Exception {
+                PortReservation reservation;
+                switch (iteration % 3) {
+                    case 0:
+                        reservation = PortReservationProvider.get().reserveEphemeralPort();
+                        break;
+                    case 1:
+                        reservation = PortReservationProvider.get().reserveOpenPort(null, 30000, 65534);
+                        break;
+                    default:
+                        reservation = PortReservationProvider.get().reserveEphemeralDatagramPort(null);
+                }
+                String key = (reservation.isDatagram() ? "udp:" : "tcp:") + reservation.getPort();
+                assertNull("port handed out twice: " + key, live.putIfAbsent(key, reservation));
+                assertFalse(reservation.isClosed());
+                /* forget it before closing; the port may be reserved again right after */
+                live.remove(key, reservation);
+                reservation.close();
+                assertTrue(reservation.isClosed());
+            }
+        });
+        assertTrue(live.isEmpty());
+    }
+
+    @Test
+    public void concurrentBindsTakeOverOnce() throws Exception {
+        StressRunner.run(new StressRunner.Task() {
+            @Override
+            public void run(int thread, final int iteration) throws Exception {
+                final PortReservation reservation = PortReservationProvider.get().reserveEphemeralPort();
+                final List<Closeable> bound = new CopyOnWriteArrayList<Closeable>();
+                final AtomicInteger failed = new AtomicInteger();
+                try {
+                    reservation.transfer(new TransferCallback<Void>() {
+                        @Override
+                        public Void transfer() throws Exception {
+                            final CountDownLatch start = new CountDownLatch(1);
+                            List<Thread> binders = new ArrayList<Thread>();
+                            for (int i = 0; i < BINDERS; i++) {
+                                /* started inside the callback, so they bind within the transfer scope */
+                                Thread binder = new Thread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        try {
+                                            start.await();
+                                            bound.add(bind(reservation.getPort(), iteration % 2 == 0));
+                                        } catch (IOException e) {
+                                            failed.incrementAndGet();
+                                        } catch (InterruptedException e) {
+                                            Thread.currentThread().interrupt();
+                                        }
+                                    }
+                                });
+                                binder.start();
+                                binders.add(binder);
+                            }
+                            start.countDown();
+                            for (Thread binder : binders) {
+                                binder.join();
+                            }
+                            return null;
+                        }
+                    });
+                    assertEquals("binds that took the reservation over", 1, bound.size());
+                    assertEquals(BINDERS - 1, failed.get());
+                } finally {
+                    for (Closeable closeable : bound) {
+                        closeable.close();
+                    }
+                    reservation.close();
+                }
+                assertEquals(PortReservationInternal.State.CLOSED, reservation.getInternal().getState());
+            }
+        });
+    }
+
+    @Test
+    public void closeRacesTransfer() throws Exception {
+        StressRunner.run(new StressRunner.Task() {
+            @Override
+            public void run(int thread, int iteration) throws Exception {
+                final PortReservation reservation = PortReservationProvider.get().reserveEphemeralPort();
+                final int spins = ThreadLocalRandom.current().nextInt(2000);
+                Thread closer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < spins; i++) {
+                            Thread.yield();
+                        }
+                        try {
+                            reservation.close();
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+                closer.start();
+                Closeable owner = null;
+                try {
+                    owner = reservation.transfer(new TransferCallback<Closeable>() {
+                        @Override
+                        public Closeable transfer() throws Exception {
+                            return bind(reservation.getPort(), spins % 2 == 0);
+                        }
+                    });
+                } catch (IllegalStateException closedFirst) {
+                    /* closed before the transfer started */
+                } catch (RuntimeException e) {
+                    if (!(e.getCause() instanceof IOException)) {
+                        throw e;
+                    }
+                    /* closed after the transfer started, but the reserved socket was still bound */
+                } finally {
+                    closer.join();
+                    if (owner != null) {
+                        owner.close();
+                    }
+                }
+                assertEquals(PortReservationInternal.State.CLOSED, reservation.getInternal().getState());
+                assertTrue(reservation.isClosed());
+            }
+        });
+    }
+
+    @Test
+    public void sharedReservationsTransferOneAtATime() throws Exception {
+        final List<PortReservation> shared = new ArrayList<PortReservation>();
+        final ConcurrentMap<PortReservation, AtomicInteger> inCallback =
+                new ConcurrentHashMap<PortReservation, AtomicInteger>();
+        for (int i = 0; i < Math.max(1, StressRunner.THREADS / 4); i++) {
+            PortReservation reservation = PortReservationProvider.get().reserveEphemeralPort();
+            shared.add(reservation);
+            inCallback.put(reservation, new AtomicInteger());
+        }
+        final AtomicInteger transfers = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        try {
+            StressRunner.run(new StressRunner.Task() {
+                @Override
+                public void run(int thread, int iteration) throws Exception {
+                    final PortReservation reservation = shared.get((thread + iteration) % shared.size());
+                    try {
+                        reservation.transfer(new TransferCallback<Void>() {
+                            @Override
+                            public Void transfer() throws Exception {
+                                AtomicInteger count = inCallback.get(reservation);
+                                assertEquals("concurrent transfers of one reservation", 1, count.incrementAndGet());
+                                Thread.yield();
+                                count.decrementAndGet();
+                                return null;
+                            }
+                        });
+                        transfers.incrementAndGet();
+                    } catch (IllegalStateException alreadyTransferring) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            assertEquals(StressRunner.THREADS * StressRunner.ITERATIONS, transfers.get() + rejected.get());
+            for (PortReservation reservation : shared) {
+                assertEquals(PortReservationInternal.State.RESERVED, reservation.getInternal().getState());
+            }
+        } finally {
+            PortReservation.close(shared);
+        }
+    }
+
+    /* bind through ServerSocket or ServerSocketChannel, which are intercepted differently */
+    private static Closeable bind(int port, boolean channel) throws IOException {
+        if (channel) {
+            ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+            try {
+                serverSocketChannel.bind(new InetSocketAddress(port));
+            } catch (IOException e) {
+                serverSocketChannel.close();
+                throw e;
+            }
+            return serverSocketChannel;
+        }
+        return new ServerSocket(port);
+    }
+}